@@ -0,0 +1,17 @@
+#wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/FlowLibrary/FlowLibrary.sh
+# Run in the folder of a converged flow (e.g. a TorqueRst run) and submit
+# registerFlow.slurm to add the newest .sim there to the warm-start library.
+FlowLibrary=$HOME/FlowLibrary
+MeshSize=20
+TurbulenceModel=RANS-RST
+TurbulentSchmidtNumber=Double.NaN # flow-only runs, otherwise the value used
+
+rm RegisterFlow.java
+rm registerFlow.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/FlowLibrary/RegisterFlow.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/FlowLibrary/registerFlow.slurm
+
+sed "s|__FlowLibrary__|$FlowLibrary|" -i RegisterFlow.java
+sed "s/__MeshSize__/$MeshSize/" -i RegisterFlow.java
+sed "s/__TurbulenceModel__/$TurbulenceModel/" -i RegisterFlow.java
+sed "s/__TurbulentSchmidtNumber__/$TurbulentSchmidtNumber/" -i RegisterFlow.java
@@ -0,0 +1,61 @@
+// Simcenter STAR-CCM+ macro: RegisterFlow.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Adds the loaded, converged flow to the warm-start library. The .sim is saved
+// into FlowLibrary and a row is appended to FlowLibrary/FlowLibrary.csv, keyed
+// by RPM, RotorDiameter (read from the global parameters of the sim), MeshSize,
+// turbulence model and turbulent Schmidt number (substituted by FlowLibrary.sh).
+public class RegisterFlow extends StarMacro {
+
+    String FlowLibrary = "__FlowLibrary__";
+    double MeshSize = __MeshSize__;
+    String TurbulenceModel = "__TurbulenceModel__";
+    double TurbulentSchmidtNumber = __TurbulentSchmidtNumber__; // NaN for flow-only runs
+
+    static final String INDEXHEADER = "RPM,RotorDiameter,MeshSize,TurbulenceModel,TurbulentSchmidtNumber,PhysicalTime,Sim";
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+
+        double RPM = getParameter("RPM") * 60.0 / (2.0 * Math.PI); // stored in rad/s
+        double RotorDiameter = getParameter("RotorDiameter");
+        double physicalTime = simulation.getSolution().getPhysicalTime();
+
+        String simName = String.format("Flow_%1.0fRPM_%1.0fmm_Mesh%s_%s_%s.sim", RPM, RotorDiameter * 1000, MeshSize,
+                TurbulenceModel, UUID.randomUUID().toString().substring(0, 5));
+
+        try {
+            Files.createDirectories(Paths.get(FlowLibrary));
+            simulation.saveState(FlowLibrary + "/" + simName);
+
+            Path index = Paths.get(FlowLibrary, "FlowLibrary.csv");
+            boolean newIndex = !Files.exists(index);
+            PrintWriter writer = new PrintWriter(new FileWriter(index.toString(), true));
+            if (newIndex) {
+                writer.println(INDEXHEADER);
+            }
+            writer.println(String.format("%s,%s,%s,%s,%s,%s,%s", RPM, RotorDiameter, MeshSize, TurbulenceModel,
+                    TurbulentSchmidtNumber, physicalTime, simName));
+            writer.close();
+
+            simulation.println("RegisterFlow: added " + simName + " to " + index);
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private double getParameter(String name) {
+        Simulation simulation = getActiveSimulation();
+        ScalarGlobalParameter sParameter = (ScalarGlobalParameter) simulation.get(GlobalParameterManager.class)
+                .getObject(name);
+        return sParameter.getQuantity().getSIValue();
+    }
+}
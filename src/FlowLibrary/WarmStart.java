@@ -0,0 +1,81 @@
+// Simcenter STAR-CCM+ macro: WarmStart.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Picks the library flow (RegisterFlow.java) closest to this study and copies it
+// into the session directory, where the run scripts pick the newest .sim.
+// RotorDiameter, MeshSize and turbulence model must match, since the geometry,
+// mesh and turbulence fields are reused as they are. Among those, the nearest RPM
+// in log scale wins, then the nearest turbulent Schmidt number. A different RPM
+// is recorded in WarmStart.properties for the study macro to rescale velocities.
+public class WarmStart extends StarMacro {
+
+    String FlowLibrary = "__FlowLibrary__";
+    double RPM = __RPM__;
+    double RotorDiameter = __RotorDiameter__;
+    double MeshSize = __MeshSize__;
+    String TurbulenceModel = "__TurbulenceModel__";
+    double TurbulentSchmidtNumber = __TurbulentSchmidtNumber__;
+
+    double maxRpmRatio = 1.5; // flows further away than this are not served
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        String SessionDirectory = simulation.getSessionDir();
+
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(FlowLibrary, "FlowLibrary.csv"));
+            String best = null;
+            double bestRpm = 0;
+            double bestDistance = Double.MAX_VALUE;
+            for (int i = 1; i < lines.size(); i++) {
+                String[] cols = lines.get(i).split(",");
+                if (cols.length < 7 || !cols[3].equals(TurbulenceModel)
+                        || Math.abs(Double.parseDouble(cols[1]) - RotorDiameter) > 1e-6
+                        || Math.abs(Double.parseDouble(cols[2]) - MeshSize) > 1e-6) {
+                    continue;
+                }
+                double rpm = Double.parseDouble(cols[0]);
+                double schmidt = Double.parseDouble(cols[4]);
+                double distance = Math.abs(Math.log(rpm / RPM));
+                if (!Double.isNaN(schmidt)) {
+                    distance += 1e-3 * Math.abs(schmidt - TurbulentSchmidtNumber);
+                }
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = cols[6];
+                    bestRpm = rpm;
+                }
+            }
+
+            if (best == null || Math.abs(Math.log(bestRpm / RPM)) > Math.log(maxRpmRatio)) {
+                simulation.println("WarmStart: no library flow within a factor " + maxRpmRatio + " of " + RPM + " RPM");
+                return;
+            }
+
+            Path target = Paths.get(SessionDirectory, best);
+            Files.copy(Paths.get(FlowLibrary, best), target, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(target, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis()));
+
+            Properties warmStart = new Properties();
+            warmStart.setProperty("Source", best);
+            warmStart.setProperty("SourceRPM", "" + bestRpm);
+            warmStart.setProperty("TargetRPM", "" + RPM);
+            warmStart.setProperty("VelocityScale", "" + RPM / bestRpm);
+            Writer writer = Files.newBufferedWriter(Paths.get(SessionDirectory, "WarmStart.properties"));
+            warmStart.store(writer, "Written by WarmStart.java");
+            writer.close();
+
+            simulation.println(String.format("WarmStart: using %s (%.0f RPM) for %.0f RPM", best, bestRpm, RPM));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+}
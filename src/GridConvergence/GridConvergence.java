@@ -0,0 +1,170 @@
+// Simcenter STAR-CCM+ macro: GridConvergence.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.stream.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Grid convergence index (Celik et al., J. Fluids Eng. 130, 2008) over a mesh
+// sweep. Collects every Results/LevelSummary.csv below StudyDirectory (written by
+// MeshConvergence.java and CouetteCell.java), groups the levels by case and
+// report, and uses the relative base size as the grid spacing h. From the three
+// finest levels the observed order p, the Richardson extrapolated value and the
+// GCI of the two finer pairs are computed; oscillatory convergence is flagged.
+// Each level's error against the extrapolated value is written to
+// GridConvergence.csv, and the coarsest level where all recommendedReports are
+// within targetError of it is recommended per case in
+// GridConvergenceRecommendation.txt. Recommended reports a case does not have
+// (e.g. the outlet concentration of a torque-only cell) are listed as missing
+// there, so the basis of the recommendation is visible.
+public class GridConvergence extends StarMacro {
+
+    String StudyDirectory = "__StudyDirectory__";
+    String[] recommendedReports = { "Rotor Moment", "Mass Flow Averaged Outlet Concentration of SR",
+            "Rotor Wall Shear Stress" }; // all reports common to the levels if empty
+    double targetError = 0.02; // relative to the extrapolated value
+    double safetyFactor = 1.25; // three or more levels
+    int maxOrderIterations = 100;
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+
+        try {
+            // case -> report -> mesh size -> value
+            Map<String, Map<String, TreeMap<Double, Double>>> cases = new TreeMap<String, Map<String, TreeMap<Double, Double>>>();
+            List<Path> summaries;
+            try (Stream<Path> walk = Files.walk(Paths.get(StudyDirectory))) {
+                summaries = walk.filter(p -> p.getFileName().toString().equals("LevelSummary.csv"))
+                        .collect(Collectors.toList());
+            }
+            for (Path summary : summaries) {
+                List<String> lines = Files.readAllLines(summary);
+                for (int i = 1; i < lines.size(); i++) {
+                    String[] cols = lines.get(i).split(",");
+                    if (cols.length < 4) {
+                        continue;
+                    }
+                    cases.computeIfAbsent(cols[0], k -> new TreeMap<String, TreeMap<Double, Double>>())
+                            .computeIfAbsent(cols[2], k -> new TreeMap<Double, Double>())
+                            .put(Double.parseDouble(cols[1]), Double.parseDouble(cols[3]));
+                }
+            }
+            simulation.println(String.format("GridConvergence: %d level summaries, %d cases", summaries.size(),
+                    cases.size()));
+
+            PrintWriter writer = new PrintWriter(StudyDirectory + "/GridConvergence.csv", "UTF-8");
+            writer.println("Case,Report,MeshSize,Value,Extrapolated,ObservedOrder,GCIfine21,GCI32,Oscillatory,RelativeError");
+            PrintWriter recommendation = new PrintWriter(StudyDirectory + "/GridConvergenceRecommendation.txt", "UTF-8");
+
+            for (Map.Entry<String, Map<String, TreeMap<Double, Double>>> entry : cases.entrySet()) {
+                // Largest error over the checked reports, per mesh size
+                TreeMap<Double, Double> worstError = new TreeMap<Double, Double>();
+                List<String> checked = new ArrayList<String>();
+
+                for (Map.Entry<String, TreeMap<Double, Double>> report : entry.getValue().entrySet()) {
+                    TreeMap<Double, Double> levels = report.getValue();
+                    if (levels.size() < 3) {
+                        simulation.println(String.format("GridConvergence: %s / %s has %d levels, 3 needed",
+                                entry.getKey(), report.getKey(), levels.size()));
+                        continue;
+                    }
+                    double[] h = new double[3];
+                    double[] phi = new double[3];
+                    Iterator<Map.Entry<Double, Double>> finest = levels.entrySet().iterator();
+                    for (int i = 0; i < 3; i++) {
+                        Map.Entry<Double, Double> level = finest.next();
+                        h[i] = level.getKey();
+                        phi[i] = level.getValue();
+                    }
+                    double[] gci = gridConvergenceIndex(h, phi);
+                    double p = gci[0];
+                    double extrapolated = gci[1];
+                    boolean oscillatory = gci[4] < 0;
+
+                    boolean check = recommendedReports.length == 0
+                            || Arrays.asList(recommendedReports).contains(report.getKey());
+                    if (check) {
+                        checked.add(report.getKey());
+                    }
+                    for (Map.Entry<Double, Double> level : levels.entrySet()) {
+                        double error = Math.abs(level.getValue() - extrapolated)
+                                / Math.max(Math.abs(extrapolated), 1e-30);
+                        writer.println(String.format("%s,%s,%s,%.6e,%.6e,%.3f,%.4e,%.4e,%s,%.4e", entry.getKey(),
+                                report.getKey(), level.getKey(), level.getValue(), extrapolated, p, gci[2], gci[3],
+                                oscillatory, error));
+                        if (check) {
+                            worstError.merge(level.getKey(), Double.isNaN(error) ? Double.POSITIVE_INFINITY : error,
+                                    Math::max);
+                        }
+                    }
+                }
+
+                List<String> missing = new ArrayList<String>();
+                for (String report : recommendedReports) {
+                    if (!checked.contains(report)) {
+                        missing.add(report);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    simulation.println(String.format("GridConvergence: %s has no 3-level %s, recommended on %s only",
+                            entry.getKey(), String.join(", ", missing), String.join(", ", checked)));
+                }
+
+                // Coarsest mesh whose worst error is within the target
+                Double recommended = null;
+                for (Map.Entry<Double, Double> level : worstError.descendingMap().entrySet()) {
+                    if (level.getValue() <= targetError) {
+                        recommended = level.getKey();
+                        break;
+                    }
+                }
+                String line = recommended != null
+                        ? String.format("%s: MeshSize %s (max error %.2f%% on %s)", entry.getKey(), recommended,
+                                100 * worstError.get(recommended), String.join(", ", checked))
+                        : String.format("%s: no level within %.1f%% on %s", entry.getKey(), 100 * targetError,
+                                String.join(", ", checked));
+                if (!missing.isEmpty()) {
+                    line += " - missing " + String.join(", ", missing);
+                }
+                recommendation.println(line);
+                simulation.println("GridConvergence: " + line);
+            }
+            writer.close();
+            recommendation.close();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // h and phi ordered fine to coarse. Returns { p, extrapolated, GCIfine21,
+    // GCI32, s }, with s < 0 for oscillatory convergence.
+    double[] gridConvergenceIndex(double[] h, double[] phi) {
+        double r21 = h[1] / h[0];
+        double r32 = h[2] / h[1];
+        double e21 = phi[1] - phi[0];
+        double e32 = phi[2] - phi[1];
+        double s = Math.signum(e32 / e21);
+
+        // Fixed-point iteration for the observed order, exact for r21 == r32
+        double p = Math.abs(Math.log(Math.abs(e32 / e21))) / Math.log(r21);
+        for (int i = 0; i < maxOrderIterations; i++) {
+            double q = Math.log((Math.pow(r21, p) - s) / (Math.pow(r32, p) - s));
+            double next = Math.abs(Math.log(Math.abs(e32 / e21)) + q) / Math.log(r21);
+            if (Double.isNaN(next) || Math.abs(next - p) < 1e-8) {
+                p = Double.isNaN(next) ? p : next;
+                break;
+            }
+            p = next;
+        }
+
+        double extrapolated = (Math.pow(r21, p) * phi[0] - phi[1]) / (Math.pow(r21, p) - 1);
+        double gci21 = safetyFactor * Math.abs(e21 / phi[0]) / (Math.pow(r21, p) - 1);
+        double gci32 = safetyFactor * Math.abs(e32 / phi[1]) / (Math.pow(r32, p) - 1);
+        return new double[] { p, extrapolated, gci21, gci32, s };
+    }
+}
@@ -0,0 +1,12 @@
+#wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/GridConvergence/GridConvergence.sh
+# Run in (or pass) the root of a finished mesh sweep, e.g. Rough/ of ReactivePipeMeshConv/makeSims.sh
+StudyDirectory=${1:-$(pwd)}
+
+rm GridConvergence.java
+rm gridConvergence.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/GridConvergence/GridConvergence.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/GridConvergence/gridConvergence.slurm
+
+sed "s|__StudyDirectory__|${StudyDirectory}|" -i GridConvergence.java
+
+sbatch gridConvergence.slurm
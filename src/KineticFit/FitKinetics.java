@@ -0,0 +1,269 @@
+// Simcenter STAR-CCM+ macro: FitKinetics.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.util.stream.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Fits R_fit_pA, R_fit_pB and k1 against measured outlet Ba concentrations.
+// Every measured condition is evaluated with a reduced reactor model of the
+// Couette cell (Taylor vortex pairs as tanks in series) instead of a CFD run,
+// and the parameter space is searched with a parallel differential evolution.
+//
+// Input: ExperimentalEffluent.csv in the session directory with header
+// RPM,FlowRateMlMin,RotorDiameter,concentrationNa2SO4,concentrationBaCl2,mBaOut
+public class FitKinetics extends StarMacro {
+
+    // Geometry [m] - same as CouetteCell
+    double StatorDiameter = 98e-3;
+    double StatorHeight = 140e-3;
+
+    // Thermodynamics
+    double logKsp = -9.87; // log10 of barite solubility product (as in dRdm field functions)
+    double Temperature = 22; // C
+
+    // Search space in log10 - k1 at the lower bound is effectively zero
+    double[] lowerBounds = { -8.0, -6.0, -12.0 }; // pA, pB, k1
+    double[] upperBounds = { 0.0, 1.0, -2.0 };
+
+    // Differential evolution
+    int populationSize = 60;
+    int generations = 400;
+    double mutationFactor = 0.7;
+    double crossoverRate = 0.9;
+    long seed = 42;
+    double tolerance = 1e-10; // stop once the population spread in cost is below this
+
+    String InputFile = "ExperimentalEffluent.csv";
+    String OutputFile = "KineticFit.csv";
+
+    String SessionDirectory = "";
+    List<double[]> experiments = new ArrayList<double[]>();
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        SessionDirectory = simulation.getSessionDir();
+
+        try {
+            readExperiments(SessionDirectory + "/" + InputFile);
+        } catch (Exception ex) {
+            simulation.println(ex);
+            return;
+        }
+        simulation.println("FitKinetics: " + experiments.size() + " conditions read from " + InputFile);
+
+        double[] best = differentialEvolution();
+        double[] parameters = toParameters(best);
+
+        simulation.println(String.format("FitKinetics: R_fit_pA = %.4e, R_fit_pB = %.4e, k1 = %.4e, cost = %.4e",
+                parameters[0], parameters[1], parameters[2], cost(best)));
+
+        writeResults(SessionDirectory + "/" + OutputFile, parameters);
+    }
+
+    private void readExperiments(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] cols = line.split(",");
+            double[] row = new double[cols.length];
+            for (int j = 0; j < cols.length; j++) {
+                row[j] = Double.parseDouble(cols[j].trim());
+            }
+            experiments.add(row);
+        }
+    }
+
+    // Population is evaluated in parallel; the random draws stay on the calling
+    // thread so a given seed always reproduces the same fit.
+    private double[] differentialEvolution() {
+        Simulation simulation = getActiveSimulation();
+        Random random = new Random(seed);
+        int dim = lowerBounds.length;
+
+        double[][] population = new double[populationSize][dim];
+        for (int i = 0; i < populationSize; i++) {
+            for (int j = 0; j < dim; j++) {
+                population[i][j] = lowerBounds[j] + random.nextDouble() * (upperBounds[j] - lowerBounds[j]);
+            }
+        }
+        double[] costs = evaluate(population);
+
+        for (int g = 0; g < generations; g++) {
+            double[][] trials = new double[populationSize][dim];
+            for (int i = 0; i < populationSize; i++) {
+                int a, b, c;
+                do {
+                    a = random.nextInt(populationSize);
+                } while (a == i);
+                do {
+                    b = random.nextInt(populationSize);
+                } while (b == i || b == a);
+                do {
+                    c = random.nextInt(populationSize);
+                } while (c == i || c == a || c == b);
+
+                int forced = random.nextInt(dim);
+                for (int j = 0; j < dim; j++) {
+                    if (j == forced || random.nextDouble() < crossoverRate) {
+                        double v = population[a][j] + mutationFactor * (population[b][j] - population[c][j]);
+                        trials[i][j] = Math.min(upperBounds[j], Math.max(lowerBounds[j], v));
+                    } else {
+                        trials[i][j] = population[i][j];
+                    }
+                }
+            }
+
+            double[] trialCosts = evaluate(trials);
+            for (int i = 0; i < populationSize; i++) {
+                if (trialCosts[i] <= costs[i]) {
+                    population[i] = trials[i];
+                    costs[i] = trialCosts[i];
+                }
+            }
+
+            double min = Arrays.stream(costs).min().getAsDouble();
+            double max = Arrays.stream(costs).max().getAsDouble();
+            if (g % 50 == 0) {
+                simulation.println(String.format("FitKinetics: generation %d, best cost %.4e", g, min));
+            }
+            if (max - min < tolerance) {
+                simulation.println("FitKinetics: converged after " + (g + 1) + " generations");
+                break;
+            }
+        }
+
+        int bestIndex = 0;
+        for (int i = 1; i < populationSize; i++) {
+            if (costs[i] < costs[bestIndex]) {
+                bestIndex = i;
+            }
+        }
+        return population[bestIndex];
+    }
+
+    private double[] evaluate(double[][] population) {
+        return IntStream.range(0, population.length).parallel().mapToDouble(i -> cost(population[i])).toArray();
+    }
+
+    private double[] toParameters(double[] logParameters) {
+        double[] parameters = new double[logParameters.length];
+        for (int j = 0; j < logParameters.length; j++) {
+            parameters[j] = Math.pow(10, logParameters[j]);
+        }
+        return parameters;
+    }
+
+    // Sum of squared relative errors on outlet Ba
+    private double cost(double[] logParameters) {
+        double[] parameters = toParameters(logParameters);
+        double sum = 0;
+        for (double[] experiment : experiments) {
+            double predicted = predictOutletBa(experiment, parameters);
+            double measured = experiment[5];
+            double error = (predicted - measured) / Math.max(measured, 1e-19);
+            sum += error * error;
+        }
+        return sum;
+    }
+
+    // Reduced reactor: one ideally mixed tank per Taylor vortex pair, axial
+    // throughflow from the inlets to OutletA. Both feeds enter the first tank.
+    private double predictOutletBa(double[] experiment, double[] parameters) {
+        double RPM = experiment[0];
+        double FlowRateMlMin = experiment[1];
+        double RotorDiameter = experiment[2];
+        double concentrationNa2SO4 = experiment[3];
+        double concentrationBaCl2 = experiment[4];
+
+        double R1 = RotorDiameter / 2.0;
+        double R2 = StatorDiameter / 2.0;
+        double d = R2 - R1;
+
+        // FlowRateMlMin is the total, split equally over the two inlets in
+        // CouetteReactiveStudyRst
+        double flowRate = FlowRateMlMin / 60.0 * 1e-6; // m3/s
+        double volume = Math.PI * (R2 * R2 - R1 * R1) * StatorHeight;
+        int tanks = RPM > 0 ? Math.max(1, (int) Math.round(StatorHeight / (2.0 * d))) : 1;
+        double tau = volume / flowRate / tanks;
+        double wallAreaPerVolume = 2.0 * R2 / (R2 * R2 - R1 * R1);
+
+        // Feeds are diluted 1:1 when they meet
+        double mBa = 0.5 * concentrationBaCl2;
+        double mSO4 = 0.5 * concentrationNa2SO4;
+        double mNa = 2.0 * 0.5 * concentrationNa2SO4;
+        double mCl = 2.0 * 0.5 * concentrationBaCl2;
+
+        for (int n = 0; n < tanks; n++) {
+            double extent = solveTankExtent(mBa, mSO4, mNa, mCl, tau, wallAreaPerVolume, parameters);
+            mBa -= extent;
+            mSO4 -= extent;
+        }
+        return mBa;
+    }
+
+    // Steady tank balance: extent = tau * R(m_in - extent). The left side grows
+    // and the right side shrinks with the extent, so bisection always converges.
+    private double solveTankExtent(double mBaIn, double mSO4In, double mNa, double mCl, double tau,
+            double wallAreaPerVolume, double[] parameters) {
+        double lo = 0;
+        double hi = Math.min(mBaIn, mSO4In);
+        for (int it = 0; it < 60; it++) {
+            double mid = 0.5 * (lo + hi);
+            double rate = reactionRate(mBaIn - mid, mSO4In - mid, mNa, mCl, wallAreaPerVolume, parameters);
+            if (mid - tau * rate > 0) {
+                hi = mid;
+            } else {
+                lo = mid;
+            }
+        }
+        return 0.5 * (lo + hi);
+    }
+
+    // Same rate expressions as the R_Bulk and R_Wall field functions with
+    // K_bulk = pA * SR^2 + pB * SR
+    private double reactionRate(double mBa, double mSO4, double mNa, double mCl, double wallAreaPerVolume,
+            double[] parameters) {
+        double SR = saturationRatio(mBa, mSO4, mNa, mCl);
+        double driving = mBa * mSO4 * Math.max(0, SR - 1);
+        double kBulk = parameters[0] * SR * SR + parameters[1] * SR;
+        return kBulk * driving + parameters[2] * wallAreaPerVolume * driving;
+    }
+
+    // Davies activity coefficients stand in for the Pitzer model in libuser.so
+    private double saturationRatio(double mBa, double mSO4, double mNa, double mCl) {
+        double ionicStrength = 0.5 * (4 * mBa + 4 * mSO4 + mNa + mCl);
+        double sqrtI = Math.sqrt(ionicStrength);
+        double A = 0.4918 + 6.6098e-4 * Temperature + 5.0231e-6 * Temperature * Temperature;
+        double logGamma = -A * 4 * (sqrtI / (1 + sqrtI) - 0.3 * ionicStrength);
+        double gamma = Math.pow(10, logGamma);
+        return gamma * gamma * mBa * mSO4 / Math.pow(10, logKsp);
+    }
+
+    private void writeResults(String path, double[] parameters) {
+        Simulation simulation = getActiveSimulation();
+
+        try {
+            PrintWriter writer = new PrintWriter(path, "UTF-8");
+            writer.println("R_fit_pA,R_fit_pB,k1");
+            writer.println(String.format("%.6e,%.6e,%.6e", parameters[0], parameters[1], parameters[2]));
+            writer.println();
+            writer.println("RPM,FlowRateMlMin,RotorDiameter,mBaOutMeasured,mBaOutPredicted");
+            for (double[] experiment : experiments) {
+                writer.println(String.format("%s,%s,%s,%.6e,%.6e", experiment[0], experiment[1], experiment[2],
+                        experiment[5], predictOutletBa(experiment, parameters)));
+            }
+            writer.close();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+#wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/KineticFit/FitKinetics.sh
+# Expects ExperimentalEffluent.csv in the folder:
+# RPM,FlowRateMlMin,RotorDiameter,concentrationNa2SO4,concentrationBaCl2,mBaOut
+
+rm FitKinetics.java
+rm fitKinetics.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/KineticFit/FitKinetics.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/KineticFit/fitKinetics.slurm
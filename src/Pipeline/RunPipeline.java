@@ -0,0 +1,215 @@
+// Simcenter STAR-CCM+ macro: RunPipeline.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Runs a DAG of macros (setup, flow, reactive, post-processing, ...) in the
+// server session pipeline.slurm starts, instead of one sbatch job per step.
+// Stages are read from Pipeline.txt, one per line:
+//   <stage> <macro.java> <retries> [<stage it depends on>,<...>|-] [<marker>]
+// A stage starts once all its dependencies have finished. Most macros catch and
+// print their own exceptions, so a stage only counts as finished if its marker,
+// a file relative to the session directory, was written during the attempt; a
+// marker <file>:<key> must in addition hold <key>=true (a .properties file).
+// Stages without a marker only fail if play() throws. After each finished
+// stage the .sim is saved to the session directory as a checkpoint and the stage
+// is recorded in Pipeline.properties, so a resubmitted job (which starts on the
+// newest .sim) skips it. A failing stage is played again up to <retries> times on
+// the state it left; if it still fails, the stages depending on it are skipped.
+// Every attempt is appended to PipelineLog.csv.
+public class RunPipeline extends StarMacro {
+
+    String PipelineFile = "Pipeline.txt";
+    String StateFile = "Pipeline.properties";
+    String LogFile = "PipelineLog.csv";
+
+    String SessionDirectory;
+    Properties state = new Properties();
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        SessionDirectory = simulation.getSessionDir();
+
+        List<String[]> stages = readStages(SessionDirectory + "/" + PipelineFile);
+        readState();
+        if (!state.containsKey("Base")) {
+            state.setProperty("Base", simulation.getPresentationName());
+        }
+
+        try {
+            boolean newLog = !Files.exists(Paths.get(SessionDirectory, LogFile));
+            PrintWriter log = new PrintWriter(new FileWriter(SessionDirectory + "/" + LogFile, true));
+            if (newLog) {
+                log.println("Stage,Macro,Attempt,Status,ElapsedSeconds,PhysicalTimeEnd,Message");
+            }
+
+            Set<String> done = new HashSet<String>();
+            Set<String> failed = new HashSet<String>();
+            for (String[] stage : stages) {
+                if ("done".equals(state.getProperty("Stage." + stage[0]))) {
+                    done.add(stage[0]);
+                }
+            }
+
+            // Stages whose dependencies are settled, in file order, until none is left
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (String[] stage : stages) {
+                    String name = stage[0];
+                    if (done.contains(name) || failed.contains(name)) {
+                        continue;
+                    }
+                    List<String> dependencies = stage.length > 3 && !stage[3].equals("-")
+                            ? Arrays.asList(stage[3].split(","))
+                            : new ArrayList<String>();
+                    if (!Collections.disjoint(dependencies, failed)) {
+                        failed.add(name);
+                        log.println(String.format("%s,%s,0,SKIPPED,0,%s,dependency failed", name, stage[1],
+                                simulation.getSolution().getPhysicalTime()));
+                        progress = true;
+                        continue;
+                    }
+                    if (!done.containsAll(dependencies)) {
+                        continue;
+                    }
+
+                    if (runStage(stage, log)) {
+                        done.add(name);
+                        checkpoint(name);
+                    } else {
+                        failed.add(name);
+                    }
+                    progress = true;
+                    if (Files.exists(Paths.get(SessionDirectory, "ABORT"))) {
+                        simulation.println("RunPipeline: ABORT file found, stopping");
+                        progress = false;
+                        break;
+                    }
+                }
+            }
+            log.close();
+
+            simulation.println(String.format("RunPipeline: %d of %d stages done, %d failed or skipped", done.size(),
+                    stages.size(), failed.size()));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private boolean runStage(String[] stage, PrintWriter log) {
+        Simulation simulation = getActiveSimulation();
+        int retries = Integer.parseInt(stage[2]);
+
+        for (int attempt = 1; attempt <= retries + 1; attempt++) {
+            long start = System.currentTimeMillis();
+            String status = "OK";
+            String message = "";
+
+            simulation.println("RunPipeline: starting " + stage[0] + " (" + stage[1] + "), attempt " + attempt);
+            try {
+                new StarScript(getActiveRootObject(), new File(resolvePath(stage[1]))).play();
+            } catch (Throwable ex) {
+                status = "FAILED";
+                message = String.valueOf(ex).replace(",", ";").replace("\n", " ");
+                simulation.println(ex);
+            }
+            if (status.equals("OK") && stage.length > 4) {
+                String missing = checkMarker(stage[4], start);
+                if (missing != null) {
+                    status = "FAILED";
+                    message = missing;
+                }
+            }
+
+            log.println(String.format("%s,%s,%d,%s,%.1f,%s,%s", stage[0], stage[1], attempt, status,
+                    (System.currentTimeMillis() - start) / 1000.0, simulation.getSolution().getPhysicalTime(),
+                    message));
+            log.flush();
+            if (status.equals("OK")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns why the marker does not show success, or null when it does
+    private String checkMarker(String marker, long attemptStart) {
+        String file = marker;
+        String key = null;
+        if (marker.contains(":")) {
+            file = marker.substring(0, marker.indexOf(":"));
+            key = marker.substring(marker.indexOf(":") + 1);
+        }
+        Path path = Paths.get(SessionDirectory, file);
+        try {
+            if (!Files.exists(path) || Files.getLastModifiedTime(path).toMillis() < attemptStart) {
+                return "marker " + file + " not written";
+            }
+            if (key != null) {
+                Properties properties = new Properties();
+                Reader reader = Files.newBufferedReader(path);
+                properties.load(reader);
+                reader.close();
+                if (!"true".equals(properties.getProperty(key))) {
+                    return "marker " + file + " without " + key + "=true";
+                }
+            }
+        } catch (Exception ex) {
+            return String.valueOf(ex).replace(",", ";").replace("\n", " ");
+        }
+        return null;
+    }
+
+    private void checkpoint(String name) {
+        Simulation simulation = getActiveSimulation();
+        state.setProperty("Stage." + name, "done");
+        try {
+            simulation.saveState(SessionDirectory + "/" + state.getProperty("Base") + "_Pipeline_" + name + ".sim");
+            Writer writer = Files.newBufferedWriter(Paths.get(SessionDirectory, StateFile));
+            state.store(writer, "Finished stages of RunPipeline.java");
+            writer.close();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private void readState() {
+        Path path = Paths.get(SessionDirectory, StateFile);
+        if (Files.exists(path)) {
+            try {
+                Reader reader = Files.newBufferedReader(path);
+                state.load(reader);
+                reader.close();
+            } catch (Exception ex) {
+                getActiveSimulation().println(ex);
+            }
+        }
+    }
+
+    private List<String[]> readStages(String path) {
+        List<String[]> stages = new ArrayList<String[]>();
+        try {
+            for (String line : Files.readAllLines(Paths.get(path))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    String[] cols = line.split("\\s+");
+                    if (cols.length < 3) {
+                        getActiveSimulation().println("RunPipeline: ignoring line '" + line + "'");
+                        continue;
+                    }
+                    stages.add(cols);
+                }
+            }
+        } catch (Exception ex) {
+            getActiveSimulation().println(ex);
+        }
+        return stages;
+    }
+}
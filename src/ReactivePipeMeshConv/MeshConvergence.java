@@ -3,6 +3,7 @@
 package macro;
 
 import java.util.*;
+import java.util.stream.*;
 import java.io.*;
 import java.nio.file.*;
 
@@ -54,6 +55,12 @@ public class MeshConvergence extends StarMacro {
         // Mesh
         double RelMeshBaseSize = __MeshSize__; // - [dimensionless in terms of R_stator - R_rotor]
 
+        // Coarse-to-fine start - FinalFields.csv of the next coarser level, "none" for a cold start
+        String CoarseFieldsFile = "__CoarseFields__";
+        String MappingMethod = "idw"; // "nearest" / "idw"
+        double MappingPointsPerBucket = 2.0; // coarse cells per spatial index bucket
+        int MappingNeighbours = 8; // coarse cells weighted per fine cell by "idw"
+
 
         // New FileName
         String uid = UUID.randomUUID().toString().substring(0, 5);
@@ -63,6 +70,7 @@ public class MeshConvergence extends StarMacro {
         int iterationUpdateFrequency = 5;
         int innerIterations = 1;
         double TimeToRun = __TimeToRun__;
+        double summaryFraction = 0.25; // trailing part of the monitors averaged for LevelSummary.csv
         boolean IsSteady = false;
 
         public void execute() {
@@ -86,11 +94,359 @@ public class MeshConvergence extends StarMacro {
 
                 // Save, prepare and run
                 ExecuteMesh("Mesh");
+                if (!CoarseFieldsFile.equals("none")) {
+                        MapCoarseSolution(CoarseFieldsFile);
+                }
+                RecordRotorShear();
                 SetAutoSave();
                 Save();
                 RunTime(TimeToRun);
                 ExportAllMonitors();
+                WriteLevelSummary(String.format("Re%s_CFL%s_k%s", ReynoldsNumber, targetCourant, K_adjustment), RelMeshBaseSize);
+                ExportFinalFields();
+
+        }
+
+        // Mean of the last summaryFraction of every report monitor, from the files
+        // ExportAllMonitors wrote, as one row per report of Results/LevelSummary.csv -
+        // the per-level input of GridConvergence.java
+        private void WriteLevelSummary(String caseName, double meshSize) {
+                Simulation simulation = getActiveSimulation();
+
+                try {
+                        Files.createDirectories(Paths.get(SessionDirectory + "/Results"));
+                        PrintWriter writer = new PrintWriter(SessionDirectory + "/Results/LevelSummary.csv", "UTF-8");
+                        writer.println("Case,MeshSize,Report,Value");
+                        for (Monitor monitor : simulation.getMonitorManager().getMonitors()) {
+                                if (!(monitor instanceof ReportMonitor)) {
+                                        continue;
+                                }
+                                Path path = Paths.get(SessionDirectory + "/monitors/" + monitor.getPresentationName().replace(" ", "") + ".csv");
+                                if (!Files.exists(path)) {
+                                        continue;
+                                }
+                                List<String> lines = Files.readAllLines(path);
+                                int first = 1 + (int) ((lines.size() - 1) * (1 - summaryFraction));
+                                double sum = 0;
+                                int count = 0;
+                                for (int i = first; i < lines.size(); i++) {
+                                        String[] cols = lines.get(i).replace("\"", "").split(",");
+                                        if (cols.length > 1) {
+                                                sum += Double.parseDouble(cols[1]);
+                                                count++;
+                                        }
+                                }
+                                if (count > 0) {
+                                        writer.println(String.format("%s,%s,%s,%.10e", caseName, meshSize,
+                                                        monitor.getPresentationName().replace(" Monitor", ""), sum / count));
+                                }
+                        }
+                        writer.close();
+                } catch (Exception ex) {
+                        simulation.println(ex);
+                }
+        }
+
+        // Writes the cell-centred velocity, pressure and passive scalars of the
+        // finished run to Results/FinalFields.csv, the input of the next finer level
+        private void ExportFinalFields() {
+                Simulation simulation = getActiveSimulation();
+
+                PrimitiveFieldFunction velocity = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager().getFunction("Velocity"));
+                List<Object> functions = new ArrayList<Object>(Arrays.asList(velocity.getComponentFunction(0),
+                                velocity.getComponentFunction(1), velocity.getComponentFunction(2),
+                                simulation.getFieldFunctionManager().getFunction("Pressure")));
+                for (String scalar : PassiveScalarNames()) {
+                        functions.add(simulation.getFieldFunctionManager().getFunction(scalar));
+                }
+                ExportCellTable("FinalFields", SessionDirectory + "/Results/FinalFields.csv", functions.toArray());
+        }
+
+        // Passive scalars of the continuum, in the order of the composite profiles
+        private List<String> PassiveScalarNames() {
+                Simulation simulation = getActiveSimulation();
+                PhysicsContinuum physicsContinuum = ((PhysicsContinuum) simulation.getContinuumManager()
+                                .getContinuum(TargetPhysicsContinuumName));
+                PassiveScalarModel passiveScalarModel = physicsContinuum.getModelManager().getModel(PassiveScalarModel.class);
+
+                List<String> names = new ArrayList<String>();
+                for (PassiveScalarMaterial material : passiveScalarModel.getPassiveScalarManager().getObjects()) {
+                        names.add(material.getPresentationName());
+                }
+                return names;
+        }
+
+        private void ExportCellTable(String name, String path, Object[] functions) {
+                Simulation simulation = getActiveSimulation();
+
+                XyzInternalTable xyzInternalTable = simulation.getTableManager().createTable(XyzInternalTable.class);
+                xyzInternalTable.setPresentationName(name);
+                xyzInternalTable.setFieldFunctions(new NeoObjectVector(functions));
+                xyzInternalTable.getParts().setQuery(null);
+                xyzInternalTable.getParts().setObjects(simulation.getRegionManager().getRegions());
+                xyzInternalTable.extract();
+
+                try {
+                        Files.createDirectories(Paths.get(path).getParent());
+                        xyzInternalTable.export(path, ",");
+                } catch (Exception ex) {
+                        simulation.println(ex);
+                }
+                simulation.getTableManager().remove(xyzInternalTable);
+        }
+
+        // Interpolates the coarse level's FinalFields.csv onto the cell centroids
+        // of the new mesh and uses the result as initial velocity, pressure and
+        // passive scalars, so the scalars do not wash in from a cold start
+        private void MapCoarseSolution(String coarseFile) {
+                Simulation simulation = getActiveSimulation();
+
+                String centroidFile = SessionDirectory + "/Results/FineCentroids.csv";
+                String mappedFile = SessionDirectory + "/Results/MappedInitialCondition.csv";
+                ExportCellTable("FineCentroids", centroidFile,
+                                new Object[] { simulation.getFieldFunctionManager().getFunction("Volume") });
+
+                List<String> scalars = PassiveScalarNames();
+                try {
+                        long start = System.currentTimeMillis();
+                        List<String> columns = new ArrayList<String>(Arrays.asList("X", "Y", "Z", "Velocity[i]", "Velocity[j]",
+                                        "Velocity[k]", "Pressure"));
+                        columns.addAll(scalars);
+                        double[][] coarse = ReadColumns(coarseFile, columns.toArray(new String[0]));
+                        double[][] fine = ReadColumns(centroidFile, new String[] { "X", "Y", "Z" });
+                        double[][] mapped = MapFields(coarse, 3, fine, MappingMethod.equals("idw"));
+
+                        PrintWriter writer = new PrintWriter(mappedFile, "UTF-8");
+                        String header = "X,Y,Z,Vx,Vy,Vz,p";
+                        for (int j = 0; j < scalars.size(); j++) {
+                                header += ",S" + j;
+                        }
+                        writer.println(header);
+                        for (int i = 0; i < fine.length; i++) {
+                                StringBuilder line = new StringBuilder(String.format("%.8e,%.8e,%.8e", fine[i][0], fine[i][1], fine[i][2]));
+                                for (double value : mapped[i]) {
+                                        line.append(String.format(",%.8e", value));
+                                }
+                                writer.println(line);
+                        }
+                        writer.close();
+                        simulation.println(String.format("MapCoarseSolution: %d coarse cells -> %d cells (%s) in %.1f s", coarse.length,
+                                        fine.length, MappingMethod, (System.currentTimeMillis() - start) / 1000.0));
+                } catch (Exception ex) {
+                        simulation.println(ex);
+                        return;
+                }
+
+                FileTable fileTable = (FileTable) simulation.getTableManager().createFromFile(mappedFile);
+                PhysicsContinuum physicsContinuum = ((PhysicsContinuum) simulation.getContinuumManager()
+                                .getContinuum(TargetPhysicsContinuumName));
+
+                VelocityProfile velocityProfile = physicsContinuum.getInitialConditions().get(VelocityProfile.class);
+                velocityProfile.setMethod(XyzTabularVectorProfileMethod.class);
+                velocityProfile.getMethod(XyzTabularVectorProfileMethod.class).setTable(fileTable);
+                velocityProfile.getMethod(XyzTabularVectorProfileMethod.class).setXData("Vx");
+                velocityProfile.getMethod(XyzTabularVectorProfileMethod.class).setYData("Vy");
+                velocityProfile.getMethod(XyzTabularVectorProfileMethod.class).setZData("Vz");
+
+                InitialPressureProfile initialPressureProfile = physicsContinuum.getInitialConditions().get(InitialPressureProfile.class);
+                initialPressureProfile.setMethod(XyzTabularScalarProfileMethod.class);
+                initialPressureProfile.getMethod(XyzTabularScalarProfileMethod.class).setTable(fileTable);
+                initialPressureProfile.getMethod(XyzTabularScalarProfileMethod.class).setData("p");
+
+                if (!scalars.isEmpty()) {
+                        PassiveScalarProfile passiveScalarProfile = physicsContinuum.getInitialConditions().get(PassiveScalarProfile.class);
+                        passiveScalarProfile.setMethod(CompositeArrayProfileMethod.class);
+                        for (int j = 0; j < scalars.size(); j++) {
+                                ScalarProfile scalarProfile = passiveScalarProfile.getMethod(CompositeArrayProfileMethod.class).getProfile(j);
+                                scalarProfile.setMethod(XyzTabularScalarProfileMethod.class);
+                                scalarProfile.getMethod(XyzTabularScalarProfileMethod.class).setTable(fileTable);
+                                scalarProfile.getMethod(XyzTabularScalarProfileMethod.class).setData("S" + j);
+                        }
+                }
+
+                simulation.getSolution().clearSolution(Solution.Clear.History, Solution.Clear.Fields);
+                InitializeSolution();
+        }
+
+        // Reads the named columns (matched on the name before the unit) of a table export
+        private double[][] ReadColumns(String path, String[] names) throws IOException {
+                List<String> lines = Files.readAllLines(Paths.get(path));
+                String[] header = lines.get(0).replace("\"", "").split(",");
+                int[] index = new int[names.length];
+                for (int j = 0; j < names.length; j++) {
+                        index[j] = -1;
+                        for (int c = 0; c < header.length; c++) {
+                                String column = header[c].trim();
+                                if (column.equals(names[j]) || column.startsWith(names[j] + " ")) {
+                                        index[j] = c;
+                                        break;
+                                }
+                        }
+                        if (index[j] < 0) {
+                                throw new IOException("Column " + names[j] + " not found in " + path);
+                        }
+                }
+
+                double[][] rows = new double[lines.size() - 1][names.length];
+                for (int i = 1; i < lines.size(); i++) {
+                        String[] cols = lines.get(i).split(",");
+                        for (int j = 0; j < names.length; j++) {
+                                rows[i - 1][j] = Double.parseDouble(cols[index[j]]);
+                        }
+                }
+                return rows;
+        }
+
+        // source rows are x, y, z followed by the fields; the returned rows hold
+        // the fields at the target points. Nearest cell, or inverse-distance
+        // weighting of the MappingNeighbours nearest source cells. The weighting is
+        // only first order: it has no gradient information, so near the walls it
+        // blends cells at different wall distances and smooths the boundary layer
+        // by about one coarse cell. The fine level resolves it again in its run.
+        private double[][] MapFields(double[][] source, int firstField, double[][] target, boolean inverseDistance) {
+                final int fields = source[0].length - firstField;
+                final SpatialIndex index = new SpatialIndex(source, MappingPointsPerBucket);
+                final double[][] mapped = new double[target.length][fields];
+
+                if (!inverseDistance) {
+                        IntStream.range(0, target.length).parallel().forEach(i -> {
+                                double[] row = source[index.nearest(target[i][0], target[i][1], target[i][2])];
+                                System.arraycopy(row, firstField, mapped[i], 0, fields);
+                        });
+                        return mapped;
+                }
+
+                final int neighbours = Math.max(1, Math.min(MappingNeighbours, source.length));
+                IntStream.range(0, target.length).parallel().forEach(i -> {
+                        int[] cells = index.nearest(target[i][0], target[i][1], target[i][2], neighbours);
+                        double sumWeights = 0;
+                        for (int cell : cells) {
+                                double[] row = source[cell];
+                                double distance = (row[0] - target[i][0]) * (row[0] - target[i][0])
+                                                + (row[1] - target[i][1]) * (row[1] - target[i][1])
+                                                + (row[2] - target[i][2]) * (row[2] - target[i][2]);
+                                if (distance < 1e-24) {
+                                        // Coincident centroid
+                                        System.arraycopy(row, firstField, mapped[i], 0, fields);
+                                        return;
+                                }
+                                double weight = 1.0 / distance;
+                                sumWeights += weight;
+                                for (int f = 0; f < fields; f++) {
+                                        mapped[i][f] += weight * row[firstField + f];
+                                }
+                        }
+                        for (int f = 0; f < fields; f++) {
+                                mapped[i][f] /= sumWeights;
+                        }
+                });
+                return mapped;
+        }
+
+        // Uniform bucket grid over a point cloud for nearest-point queries
+        static class SpatialIndex {
+                double[][] points;
+                double[] min = new double[3];
+                double[] max = new double[3];
+                double spacing;
+                int[] dims = new int[3];
+                int[] bucketStart;
+                int[] bucketPoints;
+
+                SpatialIndex(double[][] points, double pointsPerBucket) {
+                        this.points = points;
+                        for (int d = 0; d < 3; d++) {
+                                min[d] = Double.MAX_VALUE;
+                                max[d] = -Double.MAX_VALUE;
+                        }
+                        for (double[] p : points) {
+                                for (int d = 0; d < 3; d++) {
+                                        min[d] = Math.min(min[d], p[d]);
+                                        max[d] = Math.max(max[d], p[d]);
+                                }
+                        }
+                        double volume = 1;
+                        for (int d = 0; d < 3; d++) {
+                                volume *= Math.max(max[d] - min[d], 1e-12);
+                        }
+                        spacing = Math.cbrt(volume * pointsPerBucket / points.length);
+                        for (int d = 0; d < 3; d++) {
+                                dims[d] = Math.max(1, (int) Math.ceil((max[d] - min[d]) / spacing));
+                        }
+
+                        // Counting sort of the points into buckets
+                        bucketStart = new int[dims[0] * dims[1] * dims[2] + 1];
+                        int[] bucketOf = new int[points.length];
+                        for (int i = 0; i < points.length; i++) {
+                                bucketOf[i] = bucket(cell(points[i][0], 0), cell(points[i][1], 1), cell(points[i][2], 2));
+                                bucketStart[bucketOf[i] + 1]++;
+                        }
+                        for (int b = 0; b < bucketStart.length - 1; b++) {
+                                bucketStart[b + 1] += bucketStart[b];
+                        }
+                        int[] fill = Arrays.copyOf(bucketStart, bucketStart.length);
+                        bucketPoints = new int[points.length];
+                        for (int i = 0; i < points.length; i++) {
+                                bucketPoints[fill[bucketOf[i]]++] = i;
+                        }
+                }
+
+                int cell(double x, int d) {
+                        return Math.min(dims[d] - 1, Math.max(0, (int) ((x - min[d]) / spacing)));
+                }
+
+                int bucket(int a, int b, int c) {
+                        return a + dims[0] * (b + dims[1] * c);
+                }
 
+                int nearest(double x, double y, double z) {
+                        return nearest(x, y, z, 1)[0];
+                }
+
+                // The count nearest points, closest first. Searches shells of
+                // buckets around the query until no closer point can exist outside
+                // the shells already searched
+                int[] nearest(double x, double y, double z, int count) {
+                        int ca = cell(x, 0), cb = cell(y, 1), cc = cell(z, 2);
+                        int[] best = new int[count];
+                        double[] bestDistance = new double[count];
+                        Arrays.fill(best, -1);
+                        Arrays.fill(bestDistance, Double.MAX_VALUE);
+                        int maxShell = Math.max(dims[0], Math.max(dims[1], dims[2]));
+                        for (int r = 0; r <= maxShell; r++) {
+                                for (int a = ca - r; a <= ca + r; a++) {
+                                        for (int b = cb - r; b <= cb + r; b++) {
+                                                for (int c = cc - r; c <= cc + r; c++) {
+                                                        boolean onShell = Math.abs(a - ca) == r || Math.abs(b - cb) == r || Math.abs(c - cc) == r;
+                                                        if (!onShell || a < 0 || b < 0 || c < 0 || a >= dims[0] || b >= dims[1] || c >= dims[2]) {
+                                                                continue;
+                                                        }
+                                                        int n = bucket(a, b, c);
+                                                        for (int k = bucketStart[n]; k < bucketStart[n + 1]; k++) {
+                                                                double[] p = points[bucketPoints[k]];
+                                                                double distance = (p[0] - x) * (p[0] - x) + (p[1] - y) * (p[1] - y) + (p[2] - z) * (p[2] - z);
+                                                                if (distance >= bestDistance[count - 1]) {
+                                                                        continue;
+                                                                }
+                                                                // Insertion into the sorted list
+                                                                int slot = count - 1;
+                                                                while (slot > 0 && bestDistance[slot - 1] > distance) {
+                                                                        bestDistance[slot] = bestDistance[slot - 1];
+                                                                        best[slot] = best[slot - 1];
+                                                                        slot--;
+                                                                }
+                                                                bestDistance[slot] = distance;
+                                                                best[slot] = bucketPoints[k];
+                                                        }
+                                                }
+                                        }
+                                }
+                                if (best[count - 1] >= 0 && Math.sqrt(bestDistance[count - 1]) <= r * spacing) {
+                                        break;
+                                }
+                        }
+                        return best;
+                }
         }
 
         private void ExecuteMesh(String meshName) {
@@ -122,6 +478,27 @@ public class MeshConvergence extends StarMacro {
                 }
         }
 
+        // Area-averaged wall shear stress magnitude on the rotor, monitored so
+        // WriteLevelSummary reports it to GridConvergence.java
+        private void RecordRotorShear() {
+                Simulation simulation = getActiveSimulation();
+                if (simulation.getReportManager().has("Rotor Wall Shear Stress")) {
+                        return;
+                }
+
+                AreaAverageReport areaAverageReport = simulation.getReportManager().createReport(AreaAverageReport.class);
+                areaAverageReport.setPresentationName("Rotor Wall Shear Stress");
+                PrimitiveFieldFunction wallShearStress = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager()
+                                .getFunction("WallShearStress"));
+                areaAverageReport.setFieldFunction(wallShearStress.getMagnitudeFunction());
+                areaAverageReport.getParts().setQuery(null);
+                areaAverageReport.getParts().setObjects(
+                                simulation.getRegionManager().getRegion("Fluid").getBoundaryManager().getBoundary("Rotor"));
+
+                simulation.getMonitorManager().createMonitorAndPlot(
+                                new NeoObjectVector(new Object[] { areaAverageReport }), true, "%1$s Plot");
+        }
+
         private void RecordOutletConcentrations(String Scalar) {
 
                 Simulation simulation = getActiveSimulation();
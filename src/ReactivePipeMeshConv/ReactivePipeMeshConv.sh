@@ -6,6 +6,7 @@ MeshSize=__iMeshSize__
 TimeToRun=__iTimeToRun__
 ReactiveKAdjustment=__iReactivityAdjustment__
 TargetCourant=__iTargetCourant__
+CoarseFields=__iCoarseFields__
 
 
 rm *.java
@@ -24,3 +25,4 @@ sed "s/__MeshSize__/${MeshSize}/" -i MeshConvergence.java
 sed "s/__TimeToRun__/${TimeToRun}/" -i MeshConvergence.java
 sed "s/__reactivityAdjustment__/${ReactiveKAdjustment}/" -i MeshConvergence.java
 sed "s/__targetCourant__/${TargetCourant}/" -i MeshConvergence.java
+sed "s|__CoarseFields__|${CoarseFields}|" -i MeshConvergence.java
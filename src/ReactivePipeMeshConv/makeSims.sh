@@ -9,6 +9,8 @@ wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/ma
 TimeToRun_1080=2160
 for iReynolds in 4808 1080 
 do
+    # Each level starts from the fields of the next coarser one
+    CoarseFields=none
     for iMesh in 16 8 4 2
     do
         for iCFL in 1 
@@ -27,6 +29,7 @@ do
                 sed "s/__iTimeToRun__/${TimeToRun}/g" -i ReactivePipeMeshConv.sh 
                 sed "s/__iReactivityAdjustment__/${iKAdjustment}/g" -i ReactivePipeMeshConv.sh 
                 sed "s/__iTargetCourant__/${iCFL}/g" -i ReactivePipeMeshConv.sh 
+                sed "s|__iCoarseFields__|${CoarseFields}|g" -i ReactivePipeMeshConv.sh 
 
                 
                 chmod 754 ReactivePipeMeshConv.sh    
@@ -36,5 +39,6 @@ do
                 cd "${cwd}"
             done
         done
+        CoarseFields="${cwd}/Rough/Re${iReynolds}/Mesh${iMesh}/CFL${iCFL}/k${iKAdjustment}/Results/FinalFields.csv"
     done
 done
@@ -2,6 +2,8 @@
 #https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePipeMeshConv/runSims.sh
 cwd=$(pwd)
 
+# Finer levels wait for the coarser level they are mapped from
+declare -A LastJob
 
 
 for iReynolds in 4808 1080 
@@ -13,7 +15,12 @@ do
             for iKAdjustment in 1
             do
                 cd "${cwd}/Rough/Re${iReynolds}/Mesh${iMesh}/CFL${iCFL}/k${iKAdjustment}/" 
-                sbatch runUnix3.slurm
+                Key="${iReynolds}_${iCFL}_${iKAdjustment}"
+                if [ -n "${LastJob[$Key]}" ]; then
+                    LastJob[$Key]=$(sbatch --parsable --dependency=afterok:${LastJob[$Key]} runUnix3.slurm)
+                else
+                    LastJob[$Key]=$(sbatch --parsable runUnix3.slurm)
+                fi
                 cd "${cwd}"
             done
         done
@@ -60,8 +60,16 @@ public class CouetteReactiveStudyRst extends StarMacro {
         double concentrationBaCl2 = __concentrationBaCl2__; // mol/kgw
         // String[] scalars = { "mSO4_2-", "mNa_1+" , "mBa_2+", "mCl_1-",
         // "BariteScale"};
-        String[] chemScalars = {"mSO4_2-", "mNa_1+", "mBa_2+", "mCl_1-"};
-        String[] scalars = { "BariteScale" };
+        // Species registries - profile indices follow the registration order
+        SpeciesRegistry chemSpecies = new SpeciesRegistry()
+                        .add("mSO4_2-", "SO4-2_ElectrochemicalSpecies", "MolarConcentrationSO4-2")
+                        .add("mNa_1+", "Na+_ElectrochemicalSpecies", "MolarConcentrationNa+")
+                        .add("mBa_2+", "Ba+2_ElectrochemicalSpecies", "MolarConcentrationBa+2")
+                        .add("mCl_1-", "Cl-_ElectrochemicalSpecies", "MolarConcentrationCl-");
+        SpeciesRegistry scalarSpecies = new SpeciesRegistry()
+                        .add("BariteScale", null, null);
+        String[] chemScalars = chemSpecies.names();
+        String[] scalars = scalarSpecies.names();
         double D_SO4 = 2.0 * 1.06e-5 * 1e-4;
         double D_Na = 1.0 * 1.334e-5 * 1e-4;
         double D_Ba = 2.0 * 0.847e-5 * 1e-4;
@@ -89,6 +97,15 @@ public class CouetteReactiveStudyRst extends StarMacro {
         double targetCourant = 20; // adjusting timestep by RPM, RotorDiameter and MeshSize
         double TimeStep = targetCourant * 1e-3 * (500.0 / RPM) * (RelMeshBaseSize / 20.0) * (80.0e-3 / RotorDiameter); // s
 
+        // Stationarity stopping - the frozen-flow chemistry run ends once every
+        // outlet report has neither drifted nor fluctuated over the window
+        String[] stationaryReports = { "mBa_2+", "mSO4_2-", "BariteScale", "SR" };
+        double stationaryWindowResidenceTimes = 3.0; // window length in residence times
+        int stationarySamplesPerResidenceTime = 20;
+        double stationaryMaxRelativeDrift = 1e-2; // |slope| * window / |mean|
+        double stationaryMaxRelativeStd = 5e-3; // std of the linear-fit residuals / |mean|
+        double stationaryAbsoluteFloor = 1e-12; // reports below this are treated as zero
+
         // TurbulenceModelling
         String TurbulenceModel = "RANS-RST"; // "RANS-kOmega" / "LES" / "Laminar" / "RANS-RST" / "RANS-kEpsilon"
 
@@ -96,6 +113,13 @@ public class CouetteReactiveStudyRst extends StarMacro {
         String uid = UUID.randomUUID().toString().substring(0, 5);
         String SimName = "Sim_" + TurbulenceModel + "_" + uid + ".sim";
         String SessionDirectory = "";
+        String ResultsDirectory = "";
+
+        // Resume - StudyState.properties next to the saved .sim records how far
+        // the study got, so a resubmitted job continues instead of redoing setup
+        String StateFile = "StudyState.properties";
+        Properties state = new Properties();
+        double maxRunTime = 100000; // s of frozen-flow chemistry
 
         int iterationUpdateFrequency = 5;
         int innerIterations = 1;
@@ -103,7 +127,18 @@ public class CouetteReactiveStudyRst extends StarMacro {
         public void execute() {
                 Simulation simulation = getActiveSimulation();
                 SessionDirectory = simulation.getSessionDir();
-                StartRstReactiveSimulation();
+                ResultsDirectory = GetResultsDirectory();
+
+                if (IsSetupApplied()) {
+                        ResumeRstReactiveSimulation();
+                } else {
+                        String autosave = FindNewestAutosave();
+                        if (autosave != null) {
+                                // The run scripts load autosaves newer than the submitted .sim, so this one is older
+                                simulation.println("Found autosave " + autosave + ", older than the loaded .sim - rebuilding the setup");
+                        }
+                        StartRstReactiveSimulation();
+                }
 
         }
 
@@ -130,16 +165,14 @@ public class CouetteReactiveStudyRst extends StarMacro {
 
                 
                 
-                // Array = SO4, Na, Ba, Cl
                 double initialNa2SO4 = 1.0;
                 double initialBaCl = 1 - initialNa2SO4;
 
-                double[] initialConcentrations = {
-                        concentrationNa2SO4 * 1 * initialNa2SO4 + m_SMALL, // SO4
-                        concentrationNa2SO4 * 2 * initialNa2SO4 + m_SMALL, // Na
-                        concentrationBaCl2 * 1 * initialBaCl + m_SMALL,   // Ba
-                        concentrationBaCl2 * 2 * initialBaCl + m_SMALL   // Cl
-                };
+                double[] initialConcentrations = chemSpecies.filled(m_SMALL);
+                initialConcentrations[chemSpecies.index("mSO4_2-")] += concentrationNa2SO4 * 1 * initialNa2SO4;
+                initialConcentrations[chemSpecies.index("mNa_1+")] += concentrationNa2SO4 * 2 * initialNa2SO4;
+                initialConcentrations[chemSpecies.index("mBa_2+")] += concentrationBaCl2 * 1 * initialBaCl;
+                initialConcentrations[chemSpecies.index("mCl_1-")] += concentrationBaCl2 * 2 * initialBaCl;
                 setInitialConcentration(initialConcentrations);
                 // SetScalarInitialConcentration(0, concentrationNa2SO4 * 1 * 0.5);
                 // SetScalarInitialConcentration(1, concentrationNa2SO4 * 2 * 0.5);
@@ -193,28 +226,33 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 createScalarFieldFunction("Wall dRdmSO4", "dRdmSO4_Wall" , "-0.5*${mSO4_2-}*${k1}*pow(${UserPitzerActivityCoefficient},2)/pow(10,-9.87)", dimensionless );
                
 
-                SetChemWallFlux(0, "R_SO4_Wall", "dRdmSO4_Wall");
-                SetChemWallFlux(2, "R_Ba_Wall", "dRdmBa_Wall");
-                SetChemMassSource(0, "R_SO4_Bulk", "dRdmSO4_Bulk");
-                SetChemMassSource(2, "R_Ba_Bulk", "dRdmBa_Bulk");
-                SetPassiveScalarWallMassSource(0, "R_Bulk", "dRdmBaSO4_Bulk");
+                SetChemWallFlux("mSO4_2-", "R_SO4_Wall", "dRdmSO4_Wall");
+                SetChemWallFlux("mBa_2+", "R_Ba_Wall", "dRdmBa_Wall");
+                SetChemMassSource("mSO4_2-", "R_SO4_Bulk", "dRdmSO4_Bulk");
+                SetChemMassSource("mBa_2+", "R_Ba_Bulk", "dRdmBa_Bulk");
+                SetPassiveScalarWallMassSource("BariteScale", "R_Bulk", "dRdmBaSO4_Bulk");
 
 
                 RecordOutletConcentrations("SR");
                 
 
-                // Save and prepare
-                SetAutoSave();
-                Save();
-
-                // Freeze Flow and Run
+                // Freeze Flow before the first save, so every .sim a resume can start
+                // from is frozen
                 freezeFlow();
                 freezeRst();
-                RunTime(100000);
+
+                // Save and Run
+                SetAutoSave();
+                Save();
+                state.setProperty("SimName", SimName);
+                state.setProperty("SetupComplete", "true");
+                state.setProperty("RunStartTime", "" + getActiveSimulation().getSolution().getPhysicalTime());
+                WriteState();
+                RunUntilStationary(stationaryReports, maxRunTime);
 
         }
 
-        // Creates 4 species Na, Cl, Ba, SO4, no product
+        // Creates the registered electrochemical species, no product
         private void EnableChemSpecies() {
 
                 Simulation simulation = 
@@ -233,31 +271,19 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 ElectrochemicalSpeciesMixture electrochemicalSpeciesMixture = 
                   electrochemicalSpeciesModel.getMixture();
             
-
-                  star.material.MaterialDataBase materialMaterialDataBase = 
+                star.material.MaterialDataBase materialMaterialDataBase = 
                   simulation.get(MaterialDataBaseManager.class).getMatlDataBase("Standard");
             
                 star.material.DataBaseMaterialManager materialDataBaseMaterialManager = 
                   materialMaterialDataBase.getFolder("ElectrochemicalSpecies");
+
+                // Added in registry order, which is the order of the composite profiles
+                List<Object> materials = new ArrayList<Object>();
+                for (Species species : chemSpecies.all()) {
+                        materials.add(materialDataBaseMaterialManager.getMaterial(species.materialName));
+                }
             
-                star.material.DataBaseElectrochemicalSpecies materialDataBaseElectrochemicalSpecies_SO4 = 
-                  ((star.material.DataBaseElectrochemicalSpecies) materialDataBaseMaterialManager.getMaterial("SO4-2_ElectrochemicalSpecies"));
-            
-                star.material.DataBaseElectrochemicalSpecies materialDataBaseElectrochemicalSpecies_Ba = 
-                  ((star.material.DataBaseElectrochemicalSpecies) materialDataBaseMaterialManager.getMaterial("Ba+2_ElectrochemicalSpecies"));
-            
-                star.material.DataBaseElectrochemicalSpecies materialDataBaseElectrochemicalSpecies_Cl = 
-                  ((star.material.DataBaseElectrochemicalSpecies) materialDataBaseMaterialManager.getMaterial("Cl-_ElectrochemicalSpecies"));
-            
-                star.material.DataBaseElectrochemicalSpecies materialDataBaseElectrochemicalSpecies_Na = 
-                  ((star.material.DataBaseElectrochemicalSpecies) materialDataBaseMaterialManager.getMaterial("Na+_ElectrochemicalSpecies"));
-            
-                electrochemicalSpeciesMixture.getComponents().addComponents(new NeoObjectVector(new Object[] {
-                        materialDataBaseElectrochemicalSpecies_SO4,
-                        materialDataBaseElectrochemicalSpecies_Na,
-                        materialDataBaseElectrochemicalSpecies_Ba,
-                        materialDataBaseElectrochemicalSpecies_Cl
-                        }));
+                electrochemicalSpeciesMixture.getComponents().addComponents(new NeoObjectVector(materials.toArray()));
               }
 
         private void setInitialConcentration(double[] initialConcentrations) {
@@ -274,9 +300,11 @@ public class CouetteReactiveStudyRst extends StarMacro {
 
                 Units units = ((Units) simulation.getUnitsManager().getObject("kmol/m^3"));
 
+                CompositeArrayProfileMethod method = molarConcentrationProfile
+                                .getMethod(CompositeArrayProfileMethod.class);
+
                 for (int i = 0; i < initialConcentrations.length; i++) {
-                        ScalarProfile scalarProfile = molarConcentrationProfile
-                                        .getMethod(CompositeArrayProfileMethod.class).getProfile(i);
+                        ScalarProfile scalarProfile = chemSpecies.profile("Initial/MolarConcentration", method, i);
                         scalarProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity()
                                         .setValue(initialConcentrations[i]);
                         scalarProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity().setUnits(units);
@@ -287,10 +315,10 @@ public class CouetteReactiveStudyRst extends StarMacro {
         private void Save() {
                 Simulation simulation = getActiveSimulation();
 
-                String fullPath = SessionDirectory + "/Results/" + SimName;
+                String fullPath = ResultsDirectory + "/" + SimName;
 
                 try {
-                        Files.createDirectories(Paths.get(SessionDirectory + "/Results"));
+                        Files.createDirectories(Paths.get(ResultsDirectory));
                         simulation.saveState(fullPath);
                 } catch (Exception ex) {
                         simulation.println(ex);
@@ -626,8 +654,13 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 double mBa_inletB = (nu_Ba / nu_BaCl2) * mBaCl2_inletB;
                 double mCl_inletB = (nu_Cl / nu_BaCl2) * mBaCl2_inletB;
 
-                double[] inletAConcentrations = { mSO4_inletA, mNa_inletA, m_SMALL, m_SMALL };
-                double[] inletBConcentrations = { m_SMALL, m_SMALL, mBa_inletB, mCl_inletB };
+                double[] inletAConcentrations = chemSpecies.filled(m_SMALL);
+                inletAConcentrations[chemSpecies.index("mSO4_2-")] = mSO4_inletA;
+                inletAConcentrations[chemSpecies.index("mNa_1+")] = mNa_inletA;
+
+                double[] inletBConcentrations = chemSpecies.filled(m_SMALL);
+                inletBConcentrations[chemSpecies.index("mBa_2+")] = mBa_inletB;
+                inletBConcentrations[chemSpecies.index("mCl_1-")] = mCl_inletB;
 
                 boolean[] convectionOnly = { true }; // just products
 
@@ -640,11 +673,10 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 setChemInletConcentration("InletA", inletAConcentrations);
                 setChemInletConcentration("InletB", inletBConcentrations);
 
-                // Translated Field Functions for "mSO4_2-", "mNa_1+", "mBa_2+", "mCl_1-"
-                createDimensionlessFieldFuncs("mSO4_2-", "${MolarConcentrationSO4-2}");
-                createDimensionlessFieldFuncs("mNa_1+", "${MolarConcentrationNa+}");
-                createDimensionlessFieldFuncs("mBa_2+", "${MolarConcentrationBa+2}");
-                createDimensionlessFieldFuncs("mCl_1-", "${MolarConcentrationCl-}");
+                // Translated Field Functions, e.g. "mSO4_2-" = ${MolarConcentrationSO4-2}
+                for (Species species : chemSpecies.all()) {
+                        createDimensionlessFieldFuncs(species.name, "${" + species.concentrationFunction + "}");
+                }
 
         }
 
@@ -675,9 +707,11 @@ public class CouetteReactiveStudyRst extends StarMacro {
 
                 Units units = ((Units) simulation.getUnitsManager().getObject("kmol/m^3"));
 
+                CompositeArrayProfileMethod method = molarConcentrationProfile
+                                .getMethod(CompositeArrayProfileMethod.class);
+
                 for (int i = 0; i < inletConcentrations.length; i++) {
-                        ScalarProfile scalarProfile = molarConcentrationProfile
-                                        .getMethod(CompositeArrayProfileMethod.class).getProfile(i);
+                        ScalarProfile scalarProfile = chemSpecies.profile(inletName + "/MolarConcentration", method, i);
                         scalarProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity()
                                         .setValue(inletConcentrations[i]);
                         scalarProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity().setUnits(units);
@@ -695,9 +729,12 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 molarConcentrationProfile.setMethod(CompositeArrayProfileMethod.class);
                 Units units = ((Units) simulation.getUnitsManager().getObject("kmol/m^3"));
 
+                CompositeArrayProfileMethod method = molarConcentrationProfile
+                                .getMethod(CompositeArrayProfileMethod.class);
+
                 for (int i = 0; i < scalars.length; i++) {
-                        ScalarProfile scalarProfile_i = molarConcentrationProfile
-                                        .getMethod(CompositeArrayProfileMethod.class).getProfile(i);
+                        ScalarProfile scalarProfile_i = chemSpecies.profile("OutletA/MolarConcentration", method,
+                                        chemSpecies.index(scalars[i]));
                         scalarProfile_i.getMethod(ConstantScalarProfileMethod.class).getQuantity().setUnits(units);
 
                         scalarProfile_i.getMethod(ConstantScalarProfileMethod.class).getQuantity().setDefinition(
@@ -742,6 +779,257 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 simulation.getSimulationIterator().run();
         }
 
+        // Runs in chunks of one sampling interval until all reports pass the
+        // windowed slope and variance test or maxTime has been simulated
+        private void RunUntilStationary(String[] reportNames, double maxTime) {
+                Simulation simulation = getActiveSimulation();
+
+                double residenceTime = FluidVolume() / (2.0 * flowRate);
+                double window = stationaryWindowResidenceTimes * residenceTime;
+                double sampleInterval = residenceTime / stationarySamplesPerResidenceTime;
+                double endTime = simulation.getSolution().getPhysicalTime() + maxTime;
+                simulation.println(String.format("RunUntilStationary: residence time %.4e s, window %.4e s", residenceTime, window));
+
+                Report[] reports = new Report[reportNames.length];
+                for (int i = 0; i < reportNames.length; i++) {
+                        reports[i] = simulation.getReportManager().getReport("Mass Flow Averaged Outlet Concentration of " + reportNames[i]);
+                }
+
+                List<Double> times = new ArrayList<Double>();
+                List<double[]> samples = new ArrayList<double[]>();
+                String logPath = ResultsDirectory + "/StationarityLog_" + SimName.replace(".sim", "") + ".csv";
+                boolean finished = false;
+
+                try {
+                        Files.createDirectories(Paths.get(ResultsDirectory));
+                        boolean newLog = !Files.exists(Paths.get(logPath));
+                        ReadStationarityLog(logPath, reportNames.length, times, samples);
+                        PrintWriter log = new PrintWriter(new FileWriter(logPath, true));
+                        if (newLog) {
+                                StringBuilder header = new StringBuilder("Time");
+                                for (String name : reportNames) {
+                                        header.append(",").append(name).append(",").append(name).append(" Drift,").append(name).append(" Std");
+                                }
+                                log.println(header.append(",Stationary").toString());
+                        }
+
+                        double lastTime = simulation.getSolution().getPhysicalTime();
+                        while (lastTime < endTime) {
+                                RunTime(Math.min(sampleInterval, endTime - lastTime));
+                                double time = simulation.getSolution().getPhysicalTime();
+                                if (time <= lastTime) {
+                                        // Stopped by something else, e.g. the ABORT file
+                                        break;
+                                }
+                                lastTime = time;
+
+                                double[] values = new double[reports.length];
+                                for (int i = 0; i < reports.length; i++) {
+                                        values[i] = reports[i].getReportMonitorValue();
+                                }
+                                times.add(time);
+                                samples.add(values);
+
+                                boolean stationary = times.get(times.size() - 1) - times.get(0) >= window;
+                                StringBuilder row = new StringBuilder(String.format("%.6e", time));
+                                for (int i = 0; i < reports.length; i++) {
+                                        double[] test = stationarityTest(times, samples, i, window);
+                                        stationary = stationary && test[0] < stationaryMaxRelativeDrift && test[1] < stationaryMaxRelativeStd;
+                                        row.append(String.format(",%.6e,%.6e,%.6e", values[i], test[0], test[1]));
+                                }
+                                log.println(row.append(",").append(stationary).toString());
+                                log.flush();
+                                state.setProperty("LastPhysicalTime", "" + time);
+                                WriteState();
+
+                                if (stationary) {
+                                        simulation.println(String.format("RunUntilStationary: outlet reports stationary at t = %.4e s", time));
+                                        finished = true;
+                                        break;
+                                }
+                        }
+                        log.close();
+                } catch (Exception ex) {
+                        simulation.println(ex);
+                }
+
+                if (finished || simulation.getSolution().getPhysicalTime() >= endTime) {
+                        state.setProperty("Finished", "true");
+                        WriteState();
+                }
+                Save();
+        }
+
+        // Samples logged by an earlier job on the same run, so a resumed job
+        // keeps its stationarity window
+        private void ReadStationarityLog(String logPath, int reports, List<Double> times, List<double[]> samples) throws IOException {
+                if (!Files.exists(Paths.get(logPath))) {
+                        return;
+                }
+                for (String line : Files.readAllLines(Paths.get(logPath))) {
+                        String[] cols = line.split(",");
+                        if (cols.length < 2 + 3 * reports || cols[0].equals("Time")) {
+                                continue;
+                        }
+                        double[] values = new double[reports];
+                        for (int i = 0; i < reports; i++) {
+                                values[i] = Double.parseDouble(cols[1 + 3 * i]);
+                        }
+                        times.add(Double.parseDouble(cols[0]));
+                        samples.add(values);
+                }
+        }
+
+        // The outlet reports are created by the setup, so their presence marks a
+        // .sim (saved setup or "_At_" autosave) that only needs to keep running
+        private boolean IsSetupApplied() {
+                Simulation simulation = getActiveSimulation();
+                return simulation.getReportManager().has("Mass Flow Averaged Outlet Concentration of SR");
+        }
+
+        private void ResumeRstReactiveSimulation() {
+                Simulation simulation = getActiveSimulation();
+
+                String loadedName = simulation.getPresentationName();
+                ReadState();
+                if (!loadedName.startsWith(state.getProperty("SimName", loadedName).replace(".sim", ""))) {
+                        // State belongs to another run in this folder
+                        state.clear();
+                }
+
+                SimName = state.getProperty("SimName", loadedName.split("_At_")[0] + ".sim");
+                if ("true".equals(state.getProperty("Finished"))) {
+                        simulation.println("Resume: " + SimName + " already finished, nothing to do");
+                        return;
+                }
+
+                double time = simulation.getSolution().getPhysicalTime();
+                double runStartTime = Double.parseDouble(state.getProperty("RunStartTime", "" + time));
+                double remaining = maxRunTime - (time - runStartTime);
+                simulation.println(String.format("Resume: %s from %s at t = %.4e s, %.4e s remaining%s", SimName, loadedName, time,
+                                remaining, loadedName.contains("_At_") ? " (autosave)" : ""));
+
+                state.setProperty("SimName", SimName);
+                state.setProperty("SetupComplete", "true");
+                state.setProperty("RunStartTime", "" + runStartTime);
+                state.setProperty("Resumes", "" + (Integer.parseInt(state.getProperty("Resumes", "0")) + 1));
+                WriteState();
+
+                // Frozen again on every resume, whichever .sim the job was started from
+                freezeFlow();
+                freezeRst();
+
+                RunUntilStationary(stationaryReports, remaining);
+        }
+
+        // Newest "_At_" autosave in the session or Results folder, or null
+        private String FindNewestAutosave() {
+                Path newest = null;
+                for (String folder : new String[] { SessionDirectory, ResultsDirectory }) {
+                        try {
+                                DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(folder), "*_At_*.sim");
+                                for (Path path : stream) {
+                                        if (newest == null || Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(newest)) > 0) {
+                                                newest = path;
+                                        }
+                                }
+                                stream.close();
+                        } catch (Exception ex) {
+                                // folder does not exist yet
+                        }
+                }
+                return newest == null ? null : newest.toString();
+        }
+
+        // The Results folder, also when the job was submitted from inside it to
+        // resume a saved .sim, so the state file has one location per study
+        private String GetResultsDirectory() {
+                Path session = Paths.get(SessionDirectory);
+                if (session.getFileName() != null && session.getFileName().toString().equals("Results")) {
+                        return SessionDirectory;
+                }
+                return SessionDirectory + "/Results";
+        }
+
+        private void ReadState() {
+                Path path = Paths.get(ResultsDirectory, StateFile);
+                if (!Files.exists(path)) {
+                        return;
+                }
+                try {
+                        Reader reader = Files.newBufferedReader(path);
+                        state.load(reader);
+                        reader.close();
+                } catch (Exception ex) {
+                        getActiveSimulation().println(ex);
+                }
+        }
+
+        private void WriteState() {
+                try {
+                        Files.createDirectories(Paths.get(ResultsDirectory));
+                        Writer writer = Files.newBufferedWriter(Paths.get(ResultsDirectory, StateFile));
+                        state.store(writer, "Study progress, read on resume");
+                        writer.close();
+                } catch (Exception ex) {
+                        getActiveSimulation().println(ex);
+                }
+        }
+
+        // Relative drift and residual standard deviation of a least-squares line
+        // through the samples inside the last window seconds
+        private double[] stationarityTest(List<Double> times, List<double[]> samples, int column, double window) {
+                double tEnd = times.get(times.size() - 1);
+                int n = 0;
+                double sumT = 0, sumY = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                n++;
+                                sumT += times.get(k);
+                                sumY += samples.get(k)[column];
+                        }
+                }
+                if (n < 3) {
+                        return new double[] { Double.MAX_VALUE, Double.MAX_VALUE };
+                }
+                double meanT = sumT / n;
+                double meanY = sumY / n;
+
+                double stt = 0, sty = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                double dt = times.get(k) - meanT;
+                                stt += dt * dt;
+                                sty += dt * (samples.get(k)[column] - meanY);
+                        }
+                }
+                double slope = stt > 0 ? sty / stt : 0.0;
+
+                double sse = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                double residual = samples.get(k)[column] - meanY - slope * (times.get(k) - meanT);
+                                sse += residual * residual;
+                        }
+                }
+                double scale = Math.max(Math.abs(meanY), stationaryAbsoluteFloor);
+                return new double[] { Math.abs(slope) * window / scale, Math.sqrt(sse / (n - 2)) / scale };
+        }
+
+        private double FluidVolume() {
+                Simulation simulation = getActiveSimulation();
+                if (simulation.getReportManager().has("Fluid Volume")) {
+                        return simulation.getReportManager().getReport("Fluid Volume").getReportMonitorValue();
+                }
+
+                SumReport sumReport = simulation.getReportManager().createReport(SumReport.class);
+                sumReport.setPresentationName("Fluid Volume");
+                sumReport.setFieldFunction(simulation.getFieldFunctionManager().getFunction("Volume"));
+                sumReport.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+
+                return sumReport.getReportMonitorValue();
+        }
+
         private void RunTime(double time) {
                 Simulation simulation = getActiveSimulation();
 
@@ -1139,7 +1427,7 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 massFlowRateProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity().setValue(massFlowSi);
         }
         
-        private void SetChemWallFlux(int chemInd, String FluxFieldFunc, String FluxDerivativeFieldFunc) {
+        private void SetChemWallFlux(String chemName, String FluxFieldFunc, String FluxDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();            
                 Region region = simulation.getRegionManager().getRegion("Fluid");
@@ -1159,14 +1447,15 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 molarConcentrationFluxProfile.setMethod(CompositeArrayProfileMethod.class);
                 concentrationFluxDerivativeProfile.setMethod(CompositeArrayProfileMethod.class);
             
-                ScalarProfile scalarProfileFlux = molarConcentrationFluxProfile.getMethod(CompositeArrayProfileMethod.class).getProfile(chemInd);
-                ScalarProfile scalarProfileFluxDerivative = concentrationFluxDerivativeProfile.getMethod(CompositeArrayProfileMethod.class).getProfile(chemInd);
+                int chemInd = chemSpecies.index(chemName);
+                ScalarProfile scalarProfileFlux = chemSpecies.profile("Stator/MolarConcentrationFlux", molarConcentrationFluxProfile.getMethod(CompositeArrayProfileMethod.class), chemInd);
+                ScalarProfile scalarProfileFluxDerivative = chemSpecies.profile("Stator/ConcentrationFluxDerivative", concentrationFluxDerivativeProfile.getMethod(CompositeArrayProfileMethod.class), chemInd);
 
                 scalarProfileFlux.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(FluxFieldFunction);
                 scalarProfileFluxDerivative.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(FluxDerivativeFieldFunction);
               }
 
-        private void SetPassiveScalarWallFlux(int scalarInd, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
+        private void SetPassiveScalarWallFlux(String scalarName, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
                 Region region = simulation.getRegionManager().getRegion("Fluid");
@@ -1181,12 +1470,13 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 PassiveScalarFluxDerivativeProfile passiveScalarFluxDerivativeProfile = boundary.getValues().get(PassiveScalarFluxDerivativeProfile.class);
                 passiveScalarFluxDerivativeProfile.setMethod(CompositeArrayProfileMethod.class);
 
-                ScalarProfile scalarProfile = passiveScalarFluxProfile.getMethod(CompositeArrayProfileMethod.class).getProfile(scalarInd);
+                int scalarInd = scalarSpecies.index(scalarName);
+                ScalarProfile scalarProfile = scalarSpecies.profile("Stator/PassiveScalarFlux", passiveScalarFluxProfile.getMethod(CompositeArrayProfileMethod.class), scalarInd);
                 scalarProfile.setMethod(FunctionScalarProfileMethod.class);
                 UserFieldFunction fluxFieldFunction = ((UserFieldFunction) simulation.getFieldFunctionManager().getFunction(fluxFieldFunc));
                 scalarProfile.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(fluxFieldFunction);
             
-                ScalarProfile scalarProfile_1 = passiveScalarFluxDerivativeProfile.getMethod(CompositeArrayProfileMethod.class).getProfile(scalarInd);
+                ScalarProfile scalarProfile_1 = scalarSpecies.profile("Stator/PassiveScalarFluxDerivative", passiveScalarFluxDerivativeProfile.getMethod(CompositeArrayProfileMethod.class), scalarInd);
                 scalarProfile_1.setMethod(FunctionScalarProfileMethod.class);
                 UserFieldFunction FluxDerivativeFieldFunction = ((UserFieldFunction) simulation.getFieldFunctionManager().getFunction(FluxDerivativeFieldFunc));   
                 scalarProfile_1.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(FluxDerivativeFieldFunction);
@@ -1194,7 +1484,7 @@ public class CouetteReactiveStudyRst extends StarMacro {
 
 
 
-        private void SetChemMassSource(int chemInd, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
+        private void SetChemMassSource(String chemName, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
                 Region region = simulation.getRegionManager().getRegion("Fluid");
@@ -1212,8 +1502,9 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 electrochemicalSpeciesUserSource.setMethod(CompositeArrayProfileMethod.class);
                 electrochemicalSpeciesUserSourceJacobian.setMethod(CompositeArrayProfileMethod.class);
 
-                ScalarProfile scalarProfileSource = electrochemicalSpeciesUserSource.getMethod(CompositeArrayProfileMethod.class).getProfile(chemInd);
-                ScalarProfile scalarProfileJacobian = electrochemicalSpeciesUserSourceJacobian.getMethod(CompositeArrayProfileMethod.class).getProfile(chemInd);
+                int chemInd = chemSpecies.index(chemName);
+                ScalarProfile scalarProfileSource = chemSpecies.profile("Fluid/ElectrochemicalSpeciesUserSource", electrochemicalSpeciesUserSource.getMethod(CompositeArrayProfileMethod.class), chemInd);
+                ScalarProfile scalarProfileJacobian = chemSpecies.profile("Fluid/ElectrochemicalSpeciesUserSourceJacobian", electrochemicalSpeciesUserSourceJacobian.getMethod(CompositeArrayProfileMethod.class), chemInd);
                 
 
                 scalarProfileSource.setMethod(FunctionScalarProfileMethod.class);
@@ -1224,7 +1515,7 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 
         }
 
-        private void SetPassiveScalarWallMassSource(int scalarInd, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
+        private void SetPassiveScalarWallMassSource(String scalarName, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
                 Region region = simulation.getRegionManager().getRegion("Fluid");
@@ -1234,7 +1525,8 @@ public class CouetteReactiveStudyRst extends StarMacro {
             
                 passiveScalarUserSource.setMethod(CompositeArrayProfileMethod.class);
             
-                ScalarProfile scalarProfile = passiveScalarUserSource.getMethod(CompositeArrayProfileMethod.class).getProfile(scalarInd);
+                int scalarInd = scalarSpecies.index(scalarName);
+                ScalarProfile scalarProfile = scalarSpecies.profile("Fluid/PassiveScalarUserSource", passiveScalarUserSource.getMethod(CompositeArrayProfileMethod.class), scalarInd);
                 scalarProfile.setMethod(FunctionScalarProfileMethod.class);
                 UserFieldFunction userFieldFunction = ((UserFieldFunction) simulation.getFieldFunctionManager().getFunction(sourceFieldFunc));
                 scalarProfile.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(userFieldFunction);
@@ -1242,9 +1534,74 @@ public class CouetteReactiveStudyRst extends StarMacro {
 
                 passiveScalarUserSourceDerivative.setMethod(CompositeArrayProfileMethod.class);
 
-                ScalarProfile scalarProfile_1 = passiveScalarUserSourceDerivative.getMethod(CompositeArrayProfileMethod.class).getProfile(scalarInd);
+                ScalarProfile scalarProfile_1 = scalarSpecies.profile("Fluid/PassiveScalarUserSourceDerivative", passiveScalarUserSourceDerivative.getMethod(CompositeArrayProfileMethod.class), scalarInd);
                 scalarProfile_1.setMethod(FunctionScalarProfileMethod.class);
                 UserFieldFunction userFieldFunction_1 = ((UserFieldFunction) simulation.getFieldFunctionManager().getFunction(sourceDerivativeFieldFunc));
                 scalarProfile_1.getMethod(FunctionScalarProfileMethod.class).setFieldFunction(userFieldFunction_1);
         }
+
+        // One transported species. The index is its position in the composite
+        // array profiles, i.e. the order in which it was added to the registry.
+        static class Species {
+                final String name; // field function name, e.g. "mBa_2+"
+                final String materialName; // STAR-CCM+ database material, null for passive scalars
+                final String concentrationFunction; // STAR-CCM+ molar concentration field function
+                final int index;
+
+                Species(String name, String materialName, String concentrationFunction, int index) {
+                        this.name = name;
+                        this.materialName = materialName;
+                        this.concentrationFunction = concentrationFunction;
+                        this.index = index;
+                }
+        }
+
+        // Ordered species lookup by name. Resolved ScalarProfile handles are cached
+        // per profile owner, so each composite array entry is looked up only once.
+        static class SpeciesRegistry {
+                private final Map<String, Species> species = new LinkedHashMap<String, Species>();
+                private final Map<String, ScalarProfile> profiles = new HashMap<String, ScalarProfile>();
+
+                SpeciesRegistry add(String name, String materialName, String concentrationFunction) {
+                        species.put(name, new Species(name, materialName, concentrationFunction, species.size()));
+                        return this;
+                }
+
+                Species get(String name) {
+                        Species s = species.get(name);
+                        if (s == null) {
+                                throw new IllegalArgumentException("Unknown species " + name + ", registered: "
+                                                + species.keySet());
+                        }
+                        return s;
+                }
+
+                int index(String name) {
+                        return get(name).index;
+                }
+
+                Collection<Species> all() {
+                        return species.values();
+                }
+
+                String[] names() {
+                        return species.keySet().toArray(new String[0]);
+                }
+
+                double[] filled(double value) {
+                        double[] values = new double[species.size()];
+                        Arrays.fill(values, value);
+                        return values;
+                }
+
+                ScalarProfile profile(String owner, CompositeArrayProfileMethod method, int index) {
+                        String key = owner + "[" + index + "]";
+                        ScalarProfile scalarProfile = profiles.get(key);
+                        if (scalarProfile == null) {
+                                scalarProfile = method.getProfile(index);
+                                profiles.put(key, scalarProfile);
+                        }
+                        return scalarProfile;
+                }
+        }
 }
@@ -79,6 +79,15 @@ public class CouetteReactiveStudyRst extends StarMacro {
         double targetCourant = 20; // adjusting timestep by RPM, RotorDiameter and MeshSize
         double TimeStep = targetCourant * 1e-3 * (500.0 / RPM) * (RelMeshBaseSize / 20.0) * (80.0e-3 / RotorDiameter); // s
 
+        // Stationarity stopping - the frozen-flow chemistry run ends once every
+        // outlet report has neither drifted nor fluctuated over the window
+        String[] stationaryReports = { "mBa_2+", "mSO4_2-", "BariteScale", "SR" };
+        double stationaryWindowResidenceTimes = 3.0; // window length in residence times
+        int stationarySamplesPerResidenceTime = 20;
+        double stationaryMaxRelativeDrift = 1e-2; // |slope| * window / |mean|
+        double stationaryMaxRelativeStd = 5e-3; // std of the linear-fit residuals / |mean|
+        double stationaryAbsoluteFloor = 1e-12; // reports below this are treated as zero
+
         // TurbulenceModelling
         String TurbulenceModel = "RANS-RST"; // "RANS-kOmega" / "LES" / "Laminar" / "RANS-RST" / "RANS-kEpsilon"
 
@@ -86,6 +95,13 @@ public class CouetteReactiveStudyRst extends StarMacro {
         String uid = UUID.randomUUID().toString().substring(0, 5);
         String SimName = "Sim_" + TurbulenceModel + "_" + uid + ".sim";
         String SessionDirectory = "";
+        String ResultsDirectory = "";
+
+        // Resume - StudyState.properties next to the saved .sim records how far
+        // the study got, so a resubmitted job continues instead of redoing setup
+        String StateFile = "StudyState.properties";
+        Properties state = new Properties();
+        double maxRunTime = 100000; // s of frozen-flow chemistry
 
         int iterationUpdateFrequency = 5;
         int innerIterations = 1;
@@ -93,7 +109,18 @@ public class CouetteReactiveStudyRst extends StarMacro {
         public void execute() {
                 Simulation simulation = getActiveSimulation();
                 SessionDirectory = simulation.getSessionDir();
-                StartRstReactiveSimulation();
+                ResultsDirectory = GetResultsDirectory();
+
+                if (IsSetupApplied()) {
+                        ResumeRstReactiveSimulation();
+                } else {
+                        String autosave = FindNewestAutosave();
+                        if (autosave != null) {
+                                // The run scripts load autosaves newer than the submitted .sim, so this one is older
+                                simulation.println("Found autosave " + autosave + ", older than the loaded .sim - rebuilding the setup");
+                        }
+                        StartRstReactiveSimulation();
+                }
 
         }
 
@@ -159,11 +186,11 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 createScalarFieldFunction("Wall dRdmSO4", "dRdmSO4_Wall" , "-0.5*${mSO4_2-}*${k1}*pow(${UserPitzerActivityCoefficient},2)/pow(10,-9.87)", dimensionless );
                
 
-                SetPassiveScalarWallFlux(0, "R_SO4_Wall", "dRdmSO4_Wall");
-                SetPassiveScalarWallFlux(2, "R_Ba_Wall", "dRdmBa_Wall");
-                SetPassiveScalarWallMassSource(0, "R_SO4_Bulk", "dRdmSO4_Bulk");
-                SetPassiveScalarWallMassSource(2, "R_Ba_Bulk", "dRdmBa_Bulk");
-                SetPassiveScalarWallMassSource(4, "R_Bulk", "dRdmBaSO4_Bulk");
+                SetPassiveScalarWallFlux("mSO4_2-", "R_SO4_Wall", "dRdmSO4_Wall");
+                SetPassiveScalarWallFlux("mBa_2+", "R_Ba_Wall", "dRdmBa_Wall");
+                SetPassiveScalarWallMassSource("mSO4_2-", "R_SO4_Bulk", "dRdmSO4_Bulk");
+                SetPassiveScalarWallMassSource("mBa_2+", "R_Ba_Bulk", "dRdmBa_Bulk");
+                SetPassiveScalarWallMassSource("BariteScale", "R_Bulk", "dRdmBaSO4_Bulk");
 
                 // Effluent tracking
                 for (int i = 0; i < scalars.length; i++) {
@@ -172,24 +199,29 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 RecordOutletConcentrations("SR");
                 setOutletBackflowConcentration(scalars);
 
-                // Save and prepare
-                SetAutoSave();
-                Save();
-
-                // Freeze Flow and Run
+                // Freeze Flow before the first save, so every .sim a resume can start
+                // from is frozen
                 freezeFlow();
                 freezeRst();
-                RunTime(100000);
+
+                // Save and Run
+                SetAutoSave();
+                Save();
+                state.setProperty("SimName", SimName);
+                state.setProperty("SetupComplete", "true");
+                state.setProperty("RunStartTime", "" + getActiveSimulation().getSolution().getPhysicalTime());
+                WriteState();
+                RunUntilStationary(stationaryReports, maxRunTime);
 
         }
 
         private void Save() {
                 Simulation simulation = getActiveSimulation();
 
-                String fullPath = SessionDirectory + "/Results/" + SimName;
+                String fullPath = ResultsDirectory + "/" + SimName;
 
                 try {
-                        Files.createDirectories(Paths.get(SessionDirectory + "/Results"));
+                        Files.createDirectories(Paths.get(ResultsDirectory));
                         simulation.saveState(fullPath);
                 } catch (Exception ex) {
                         simulation.println(ex);
@@ -533,6 +565,257 @@ public class CouetteReactiveStudyRst extends StarMacro {
                 simulation.getSimulationIterator().run();
         }
 
+        // Runs in chunks of one sampling interval until all reports pass the
+        // windowed slope and variance test or maxTime has been simulated
+        private void RunUntilStationary(String[] reportNames, double maxTime) {
+                Simulation simulation = getActiveSimulation();
+
+                double residenceTime = FluidVolume() / (2.0 * flowRate);
+                double window = stationaryWindowResidenceTimes * residenceTime;
+                double sampleInterval = residenceTime / stationarySamplesPerResidenceTime;
+                double endTime = simulation.getSolution().getPhysicalTime() + maxTime;
+                simulation.println(String.format("RunUntilStationary: residence time %.4e s, window %.4e s", residenceTime, window));
+
+                Report[] reports = new Report[reportNames.length];
+                for (int i = 0; i < reportNames.length; i++) {
+                        reports[i] = simulation.getReportManager().getReport("Mass Flow Averaged Outlet Concentration of " + reportNames[i]);
+                }
+
+                List<Double> times = new ArrayList<Double>();
+                List<double[]> samples = new ArrayList<double[]>();
+                String logPath = ResultsDirectory + "/StationarityLog_" + SimName.replace(".sim", "") + ".csv";
+                boolean finished = false;
+
+                try {
+                        Files.createDirectories(Paths.get(ResultsDirectory));
+                        boolean newLog = !Files.exists(Paths.get(logPath));
+                        ReadStationarityLog(logPath, reportNames.length, times, samples);
+                        PrintWriter log = new PrintWriter(new FileWriter(logPath, true));
+                        if (newLog) {
+                                StringBuilder header = new StringBuilder("Time");
+                                for (String name : reportNames) {
+                                        header.append(",").append(name).append(",").append(name).append(" Drift,").append(name).append(" Std");
+                                }
+                                log.println(header.append(",Stationary").toString());
+                        }
+
+                        double lastTime = simulation.getSolution().getPhysicalTime();
+                        while (lastTime < endTime) {
+                                RunTime(Math.min(sampleInterval, endTime - lastTime));
+                                double time = simulation.getSolution().getPhysicalTime();
+                                if (time <= lastTime) {
+                                        // Stopped by something else, e.g. the ABORT file
+                                        break;
+                                }
+                                lastTime = time;
+
+                                double[] values = new double[reports.length];
+                                for (int i = 0; i < reports.length; i++) {
+                                        values[i] = reports[i].getReportMonitorValue();
+                                }
+                                times.add(time);
+                                samples.add(values);
+
+                                boolean stationary = times.get(times.size() - 1) - times.get(0) >= window;
+                                StringBuilder row = new StringBuilder(String.format("%.6e", time));
+                                for (int i = 0; i < reports.length; i++) {
+                                        double[] test = stationarityTest(times, samples, i, window);
+                                        stationary = stationary && test[0] < stationaryMaxRelativeDrift && test[1] < stationaryMaxRelativeStd;
+                                        row.append(String.format(",%.6e,%.6e,%.6e", values[i], test[0], test[1]));
+                                }
+                                log.println(row.append(",").append(stationary).toString());
+                                log.flush();
+                                state.setProperty("LastPhysicalTime", "" + time);
+                                WriteState();
+
+                                if (stationary) {
+                                        simulation.println(String.format("RunUntilStationary: outlet reports stationary at t = %.4e s", time));
+                                        finished = true;
+                                        break;
+                                }
+                        }
+                        log.close();
+                } catch (Exception ex) {
+                        simulation.println(ex);
+                }
+
+                if (finished || simulation.getSolution().getPhysicalTime() >= endTime) {
+                        state.setProperty("Finished", "true");
+                        WriteState();
+                }
+                Save();
+        }
+
+        // Samples logged by an earlier job on the same run, so a resumed job
+        // keeps its stationarity window
+        private void ReadStationarityLog(String logPath, int reports, List<Double> times, List<double[]> samples) throws IOException {
+                if (!Files.exists(Paths.get(logPath))) {
+                        return;
+                }
+                for (String line : Files.readAllLines(Paths.get(logPath))) {
+                        String[] cols = line.split(",");
+                        if (cols.length < 2 + 3 * reports || cols[0].equals("Time")) {
+                                continue;
+                        }
+                        double[] values = new double[reports];
+                        for (int i = 0; i < reports; i++) {
+                                values[i] = Double.parseDouble(cols[1 + 3 * i]);
+                        }
+                        times.add(Double.parseDouble(cols[0]));
+                        samples.add(values);
+                }
+        }
+
+        // The outlet reports are created by the setup, so their presence marks a
+        // .sim (saved setup or "_At_" autosave) that only needs to keep running
+        private boolean IsSetupApplied() {
+                Simulation simulation = getActiveSimulation();
+                return simulation.getReportManager().has("Mass Flow Averaged Outlet Concentration of SR");
+        }
+
+        private void ResumeRstReactiveSimulation() {
+                Simulation simulation = getActiveSimulation();
+
+                String loadedName = simulation.getPresentationName();
+                ReadState();
+                if (!loadedName.startsWith(state.getProperty("SimName", loadedName).replace(".sim", ""))) {
+                        // State belongs to another run in this folder
+                        state.clear();
+                }
+
+                SimName = state.getProperty("SimName", loadedName.split("_At_")[0] + ".sim");
+                if ("true".equals(state.getProperty("Finished"))) {
+                        simulation.println("Resume: " + SimName + " already finished, nothing to do");
+                        return;
+                }
+
+                double time = simulation.getSolution().getPhysicalTime();
+                double runStartTime = Double.parseDouble(state.getProperty("RunStartTime", "" + time));
+                double remaining = maxRunTime - (time - runStartTime);
+                simulation.println(String.format("Resume: %s from %s at t = %.4e s, %.4e s remaining%s", SimName, loadedName, time,
+                                remaining, loadedName.contains("_At_") ? " (autosave)" : ""));
+
+                state.setProperty("SimName", SimName);
+                state.setProperty("SetupComplete", "true");
+                state.setProperty("RunStartTime", "" + runStartTime);
+                state.setProperty("Resumes", "" + (Integer.parseInt(state.getProperty("Resumes", "0")) + 1));
+                WriteState();
+
+                // Frozen again on every resume, whichever .sim the job was started from
+                freezeFlow();
+                freezeRst();
+
+                RunUntilStationary(stationaryReports, remaining);
+        }
+
+        // Newest "_At_" autosave in the session or Results folder, or null
+        private String FindNewestAutosave() {
+                Path newest = null;
+                for (String folder : new String[] { SessionDirectory, ResultsDirectory }) {
+                        try {
+                                DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(folder), "*_At_*.sim");
+                                for (Path path : stream) {
+                                        if (newest == null || Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(newest)) > 0) {
+                                                newest = path;
+                                        }
+                                }
+                                stream.close();
+                        } catch (Exception ex) {
+                                // folder does not exist yet
+                        }
+                }
+                return newest == null ? null : newest.toString();
+        }
+
+        // The Results folder, also when the job was submitted from inside it to
+        // resume a saved .sim, so the state file has one location per study
+        private String GetResultsDirectory() {
+                Path session = Paths.get(SessionDirectory);
+                if (session.getFileName() != null && session.getFileName().toString().equals("Results")) {
+                        return SessionDirectory;
+                }
+                return SessionDirectory + "/Results";
+        }
+
+        private void ReadState() {
+                Path path = Paths.get(ResultsDirectory, StateFile);
+                if (!Files.exists(path)) {
+                        return;
+                }
+                try {
+                        Reader reader = Files.newBufferedReader(path);
+                        state.load(reader);
+                        reader.close();
+                } catch (Exception ex) {
+                        getActiveSimulation().println(ex);
+                }
+        }
+
+        private void WriteState() {
+                try {
+                        Files.createDirectories(Paths.get(ResultsDirectory));
+                        Writer writer = Files.newBufferedWriter(Paths.get(ResultsDirectory, StateFile));
+                        state.store(writer, "Study progress, read on resume");
+                        writer.close();
+                } catch (Exception ex) {
+                        getActiveSimulation().println(ex);
+                }
+        }
+
+        // Relative drift and residual standard deviation of a least-squares line
+        // through the samples inside the last window seconds
+        private double[] stationarityTest(List<Double> times, List<double[]> samples, int column, double window) {
+                double tEnd = times.get(times.size() - 1);
+                int n = 0;
+                double sumT = 0, sumY = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                n++;
+                                sumT += times.get(k);
+                                sumY += samples.get(k)[column];
+                        }
+                }
+                if (n < 3) {
+                        return new double[] { Double.MAX_VALUE, Double.MAX_VALUE };
+                }
+                double meanT = sumT / n;
+                double meanY = sumY / n;
+
+                double stt = 0, sty = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                double dt = times.get(k) - meanT;
+                                stt += dt * dt;
+                                sty += dt * (samples.get(k)[column] - meanY);
+                        }
+                }
+                double slope = stt > 0 ? sty / stt : 0.0;
+
+                double sse = 0;
+                for (int k = 0; k < times.size(); k++) {
+                        if (times.get(k) >= tEnd - window) {
+                                double residual = samples.get(k)[column] - meanY - slope * (times.get(k) - meanT);
+                                sse += residual * residual;
+                        }
+                }
+                double scale = Math.max(Math.abs(meanY), stationaryAbsoluteFloor);
+                return new double[] { Math.abs(slope) * window / scale, Math.sqrt(sse / (n - 2)) / scale };
+        }
+
+        private double FluidVolume() {
+                Simulation simulation = getActiveSimulation();
+                if (simulation.getReportManager().has("Fluid Volume")) {
+                        return simulation.getReportManager().getReport("Fluid Volume").getReportMonitorValue();
+                }
+
+                SumReport sumReport = simulation.getReportManager().createReport(SumReport.class);
+                sumReport.setPresentationName("Fluid Volume");
+                sumReport.setFieldFunction(simulation.getFieldFunctionManager().getFunction("Volume"));
+                sumReport.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+
+                return sumReport.getReportMonitorValue();
+        }
+
         private void RunTime(double time) {
                 Simulation simulation = getActiveSimulation();
 
@@ -931,9 +1214,10 @@ public class CouetteReactiveStudyRst extends StarMacro {
         }
 
 
-        private void SetPassiveScalarWallFlux(int scalarInd, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
+        private void SetPassiveScalarWallFlux(String scalar, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
+                int scalarInd = scalarIndex(scalar);
                 Region region = simulation.getRegionManager().getRegion("Fluid");
                 Boundary boundary = region.getBoundaryManager().getBoundary("Stator");
             
@@ -958,9 +1242,20 @@ public class CouetteReactiveStudyRst extends StarMacro {
               }
 
 
-        private void SetPassiveScalarWallMassSource(int scalarInd, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
+        // Composite profile index of a passive scalar, its position in scalars
+        private int scalarIndex(String scalar) {
+                int index = Arrays.asList(scalars).indexOf(scalar);
+                if (index < 0) {
+                        throw new IllegalArgumentException("Unknown scalar " + scalar + ", registered: "
+                                        + Arrays.toString(scalars));
+                }
+                return index;
+        }
+
+        private void SetPassiveScalarWallMassSource(String scalar, String sourceFieldFunc, String sourceDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
+                int scalarInd = scalarIndex(scalar);
             
                 Region region = simulation.getRegionManager().getRegion("Fluid");
             
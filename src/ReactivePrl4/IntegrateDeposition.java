@@ -0,0 +1,233 @@
+// Simcenter STAR-CCM+ macro: IntegrateDeposition.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Integrates the Stator deposition flux exported by PostProcessPrl4
+// (DepositionFlux/*.csv) over time into a scale thickness per face.
+// Frames are read one at a time, so only the per-face running totals are kept
+// in memory regardless of the length of the run.
+// TotalDeposition is created dimensionless by PostProcessPrl4 from passive
+// scalar boundary fluxes, which STAR-CCM+ gives as wall mass flux times the
+// scalar: kg/m^2-s x mol/kgw = mol/m^2-s. The unit is taken from the exported
+// column header, so a dimensioned field function is converted by its own unit.
+public class IntegrateDeposition extends StarMacro {
+
+    static final String FLUXCOLUMN = "TotalDeposition";
+    static final String INPUTFOLDER = "DepositionFlux";
+
+    double molarMassBarite = 233.39e-3; // kg / mole
+    double DensityBarite = 4480; // kg / m3
+    double scalarToMolPerKg = 1.0; // the study's scalars are molalities in mol/kgw
+
+    int zBins = 50;
+    int mapEveryFrames = 0; // also write an intermediate map every N frames, 0 = final map only
+
+    String SessionDirectory = "";
+
+    double[] x, y, z, area;
+    double[] thickness; // m
+    double[] previousFlux; // mol/m^2-s
+    double previousTime;
+    double zMin, zMax;
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        SessionDirectory = simulation.getSessionDir();
+
+        try {
+            List<Path> frames = sortFramesByTime(Paths.get(SessionDirectory, INPUTFOLDER));
+            simulation.println("IntegrateDeposition: " + frames.size() + " frames found");
+
+            PrintWriter histogram = new PrintWriter(SessionDirectory + "/DepositionHistogramZ.csv", "UTF-8");
+            int frameNo = 0;
+            for (Path frame : frames) {
+                integrateFrame(frame);
+                if (frameNo == 0) {
+                    writeHistogramHeader(histogram);
+                }
+                writeHistogramRow(histogram);
+                frameNo++;
+
+                if (mapEveryFrames > 0 && frameNo % mapEveryFrames == 0) {
+                    writeMap(String.format("%s/CumulativeDeposition_%06d.csv", SessionDirectory, frameNo));
+                }
+            }
+            histogram.close();
+
+            writeMap(SessionDirectory + "/CumulativeDeposition.csv");
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // Only the Time column of the first data row is read here
+    private List<Path> sortFramesByTime(Path folder) throws IOException {
+        final Map<Path, Double> times = new HashMap<Path, Double>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.csv");
+        for (Path path : stream) {
+            BufferedReader reader = Files.newBufferedReader(path);
+            String[] header = splitCsv(reader.readLine());
+            String first = reader.readLine();
+            reader.close();
+            if (first == null) {
+                continue;
+            }
+            times.put(path, Double.parseDouble(splitCsv(first)[findColumn(header, "Time")]));
+        }
+        stream.close();
+
+        List<Path> frames = new ArrayList<Path>(times.keySet());
+        Collections.sort(frames, new Comparator<Path>() {
+            public int compare(Path a, Path b) {
+                return Double.compare(times.get(a), times.get(b));
+            }
+        });
+        return frames;
+    }
+
+    // Trapezoidal rule between consecutive frames; the first frame only sets
+    // the geometry and the starting flux.
+    private void integrateFrame(Path frame) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(frame);
+        String[] header = splitCsv(reader.readLine());
+        int iFlux = findColumn(header, FLUXCOLUMN);
+        double fluxToMolPerM2S = fluxToMolPerM2S(header[iFlux]);
+        int iArea = findColumn(header, "Area");
+        int iTime = findColumn(header, "Time");
+        int iX = findColumn(header, "X");
+        int iY = findColumn(header, "Y");
+        int iZ = findColumn(header, "Z");
+
+        List<double[]> rows = new ArrayList<double[]>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] cols = splitCsv(line);
+            rows.add(new double[] { Double.parseDouble(cols[iX]), Double.parseDouble(cols[iY]),
+                    Double.parseDouble(cols[iZ]), Double.parseDouble(cols[iArea]),
+                    Double.parseDouble(cols[iFlux]) * fluxToMolPerM2S, Double.parseDouble(cols[iTime]) });
+        }
+        reader.close();
+
+        int n = rows.size();
+        double time = n > 0 ? rows.get(0)[5] : previousTime;
+
+        if (thickness == null) {
+            x = new double[n];
+            y = new double[n];
+            z = new double[n];
+            area = new double[n];
+            thickness = new double[n];
+            previousFlux = new double[n];
+            zMin = Double.MAX_VALUE;
+            zMax = -Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                double[] row = rows.get(i);
+                x[i] = row[0];
+                y[i] = row[1];
+                z[i] = row[2];
+                area[i] = row[3];
+                previousFlux[i] = row[4];
+                zMin = Math.min(zMin, z[i]);
+                zMax = Math.max(zMax, z[i]);
+            }
+            previousTime = time;
+            return;
+        }
+
+        if (n != thickness.length) {
+            throw new IOException(frame + " has " + n + " faces, expected " + thickness.length);
+        }
+
+        double dt = time - previousTime;
+        double molToThickness = molarMassBarite / DensityBarite;
+        for (int i = 0; i < n; i++) {
+            double flux = rows.get(i)[4];
+            thickness[i] += 0.5 * (previousFlux[i] + flux) * dt * molToThickness;
+            previousFlux[i] = flux;
+        }
+        previousTime = time;
+    }
+
+    private void writeHistogramHeader(PrintWriter writer) {
+        StringBuilder sb = new StringBuilder("Time");
+        double dz = (zMax - zMin) / zBins;
+        for (int b = 0; b < zBins; b++) {
+            sb.append(String.format(",z=%.5f", zMin + (b + 0.5) * dz));
+        }
+        writer.println(sb.toString());
+    }
+
+    // Area-weighted mean thickness per z bin at the current frame
+    private void writeHistogramRow(PrintWriter writer) {
+        double[] binThickness = new double[zBins];
+        double[] binArea = new double[zBins];
+        double dz = (zMax - zMin) / zBins;
+        for (int i = 0; i < thickness.length; i++) {
+            int b = dz > 0 ? Math.min(zBins - 1, (int) ((z[i] - zMin) / dz)) : 0;
+            binThickness[b] += thickness[i] * area[i];
+            binArea[b] += area[i];
+        }
+
+        StringBuilder sb = new StringBuilder(String.format("%.6e", previousTime));
+        for (int b = 0; b < zBins; b++) {
+            sb.append(String.format(",%.6e", binArea[b] > 0 ? binThickness[b] / binArea[b] : 0.0));
+        }
+        writer.println(sb.toString());
+    }
+
+    private void writeMap(String path) throws IOException {
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+        writer.println("X (m),Y (m),Z (m),Area (m^2),Thickness (m),Deposited Barite (mol)");
+        double molToThickness = molarMassBarite / DensityBarite;
+        for (int i = 0; i < thickness.length; i++) {
+            writer.println(String.format("%.6e,%.6e,%.6e,%.6e,%.6e,%.6e", x[i], y[i], z[i], area[i], thickness[i],
+                    thickness[i] * area[i] / molToThickness));
+        }
+        writer.close();
+    }
+
+    // Factor from the unit in the column header, e.g. "TotalDeposition (kmol/m^2-s)";
+    // no unit means the dimensionless scalar flux
+    private double fluxToMolPerM2S(String column) throws IOException {
+        if (!column.contains("(")) {
+            return scalarToMolPerKg;
+        }
+        String unit = column.substring(column.indexOf("(") + 1, column.lastIndexOf(")")).trim();
+        if (unit.equals("mol/m^2-s")) {
+            return 1.0;
+        }
+        if (unit.equals("kmol/m^2-s")) {
+            return 1000.0;
+        }
+        throw new IOException("Unit " + unit + " of " + FLUXCOLUMN + " is not a molar flux");
+    }
+
+    private int findColumn(String[] header, String name) throws IOException {
+        for (int i = 0; i < header.length; i++) {
+            String column = header[i];
+            if (column.equals(name) || column.startsWith(name + " ") || column.startsWith(name + ":")
+                    || (name.equals("Area") && column.contains("Area"))) {
+                return i;
+            }
+        }
+        throw new IOException("Column " + name + " not found in " + Arrays.toString(header));
+    }
+
+    private String[] splitCsv(String line) {
+        String[] cols = line.split(",");
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = cols[i].replace("\"", "").trim();
+        }
+        return cols;
+    }
+}
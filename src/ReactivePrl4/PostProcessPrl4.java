@@ -38,6 +38,7 @@ public class PostProcessPrl4 extends StarMacro {
         double k1 = 0;
         double delta_t = 0.001;
         double timeToRun = 0.1;
+        int depositionExportFrequency = 10; // time steps between Stator flux exports
 
         Simulation simulation = getActiveSimulation();
         Region region = simulation.getRegionManager().getRegion("Fluid");
@@ -56,12 +57,49 @@ public class PostProcessPrl4 extends StarMacro {
         MonitorBoundaryFlux(simulation, "Fluid", "Stator", "TotalDeposition", "DepositionRate");
 
         createDepositionScene("DepositionRateMonitor");
+        recordDepositionTable("TotalDeposition", depositionExportFrequency);
         setParameter("k1", k1);
 
         setTimeStep(delta_t);
         RunTime(timeToRun);
     }
 
+    // Writes the Stator deposition flux with face centroid, area and time to
+    // DepositionFlux/ every frequency time steps, for IntegrateDeposition.java
+    public void recordDepositionTable(String fieldFunctionName, int frequency) {
+        Simulation simulation = getActiveSimulation();
+
+        try {
+            Files.createDirectories(Paths.get(simulation.getSessionDir() + "/DepositionFlux"));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+
+        XyzInternalTable xyzInternalTable = simulation.getTableManager().createTable(XyzInternalTable.class);
+        xyzInternalTable.setPresentationName("DepositionFlux");
+
+        Region region = simulation.getRegionManager().getRegion("Fluid");
+        Boundary boundary = region.getBoundaryManager().getBoundary("Stator");
+        xyzInternalTable.getParts().setQuery(null);
+        xyzInternalTable.getParts().setObjects(boundary);
+
+        FieldFunction depositionFunction = simulation.getFieldFunctionManager().getFunction(fieldFunctionName);
+        PrimitiveFieldFunction areaFunction = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager()
+                .getFunction("Area"));
+        PrimitiveFieldFunction timeFunction = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager()
+                .getFunction("Time"));
+
+        xyzInternalTable.setFieldFunctions(new NeoObjectVector(
+                new Object[] { depositionFunction, areaFunction.getMagnitudeFunction(), timeFunction }));
+
+        TableUpdate tableUpdate = xyzInternalTable.getTableUpdate();
+        tableUpdate.getUpdateModeOption().setSelected(StarUpdateModeOption.Type.TIMESTEP);
+        tableUpdate.getTimeStepUpdateFrequency().setTimeSteps(frequency);
+        tableUpdate.setAutoExtract(true);
+        tableUpdate.setSaveToFile(true);
+        tableUpdate.setFilePath(simulation.getSessionDir() + "/DepositionFlux");
+    }
+
     public void setTimeStep(double deltat) {
         Simulation simulation = getActiveSimulation();
 
@@ -15,6 +15,7 @@ rm libuser.so
 mkdir -p Results
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/CouetteReactiveStudyRst.java
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/PostProcessPrl4.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/IntegrateDeposition.java
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/runUnix3.slurm
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/runXeon40.slurm
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl4/postprocessUnix3.slurm
@@ -0,0 +1,150 @@
+// Simcenter STAR-CCM+ macro: DamkohlerDiagnostics.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.util.stream.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Local Damkohler numbers from ReactionFields.csv (ExportReactionFields.java).
+// Chemical time tau_c = min(mBa, mSO4) / R_Bulk is compared with the turbulent
+// mixing time k/epsilon (Da_t) and the Kolmogorov time sqrt(nu/epsilon) (Da_eta).
+// Cells with Da_t > 1 react faster than they mix and are counted as
+// mixing-limited. The cells are processed as a parallel stream.
+public class DamkohlerDiagnostics extends StarMacro {
+
+    // Fluid Properties
+    double density = 997.561; // kg/m3
+    double viscosity = 8.8871E-4; // Pa s
+
+    // Same names as in ExportReactionFields; for LES "k" and "epsilon"
+    String TurbulentKineticEnergy = "TurbulentKineticEnergy";
+    String TurbulentDissipationRate = "TurbulentDissipationRate";
+
+    double daThreshold = 1.0;
+    double minRate = 1e-30; // cells with a smaller bulk rate count as non-reacting
+
+    String InputFile = "ReactionFields.csv";
+    String OutputFile = "DamkohlerSummary.csv";
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        String SessionDirectory = simulation.getSessionDir();
+
+        try {
+            Path path = Paths.get(SessionDirectory, InputFile);
+            BufferedReader reader = Files.newBufferedReader(path);
+            String[] header = reader.readLine().replace("\"", "").split(",");
+            reader.close();
+
+            // The table header carries presentation names, e.g. "Turbulent Kinetic Energy (J/kg)"
+            FieldFunctionManager functions = simulation.getFieldFunctionManager();
+            final int iK = findColumn(header, functions.getFunction(TurbulentKineticEnergy).getPresentationName());
+            final int iEps = findColumn(header, functions.getFunction(TurbulentDissipationRate).getPresentationName());
+            final int iBa = findColumn(header, "mBa_2+");
+            final int iSO4 = findColumn(header, "mSO4_2-");
+            final int iRate = findColumn(header, "R_Bulk");
+            final int iVolume = findColumn(header, "Volume");
+            final double nu = viscosity / density;
+
+            Stream<String> lines = Files.lines(path);
+            RegimeStats stats = lines.skip(1).parallel().filter(line -> !line.trim().isEmpty())
+                    .map(line -> line.split(",")).collect(RegimeStats::new, (s, cols) -> {
+                        double k = Double.parseDouble(cols[iK]);
+                        double eps = Double.parseDouble(cols[iEps]);
+                        double mLimit = Math.min(Double.parseDouble(cols[iBa]), Double.parseDouble(cols[iSO4]));
+                        double rate = Math.abs(Double.parseDouble(cols[iRate]));
+                        double volume = Double.parseDouble(cols[iVolume]);
+                        s.add(k, eps, mLimit, rate, volume, nu);
+                    }, RegimeStats::merge);
+            lines.close();
+
+            stats.write(SessionDirectory + "/" + OutputFile);
+            simulation.println(String.format(
+                    "DamkohlerDiagnostics: %d cells, mixing-limited %.3f, reaction-limited %.3f, non-reacting %.3f (volume fractions)",
+                    stats.cells, stats.fraction(stats.mixingLimitedVolume), stats.fraction(stats.reactionLimitedVolume),
+                    stats.fraction(stats.nonReactingVolume)));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private int findColumn(String[] header, String... names) throws IOException {
+        for (String name : names) {
+            for (int i = 0; i < header.length; i++) {
+                String column = header[i].trim();
+                if (column.equals(name) || column.startsWith(name + " ") || column.startsWith(name + ":")) {
+                    return i;
+                }
+            }
+        }
+        throw new IOException("Column " + Arrays.toString(names) + " not found in " + Arrays.toString(header));
+    }
+
+    // Volume-weighted regime totals; one instance per worker, merged at the end
+    class RegimeStats {
+        long cells;
+        double totalVolume;
+        double mixingLimitedVolume;
+        double reactionLimitedVolume;
+        double nonReactingVolume;
+        double logDaTurbulentVolume; // sum of log10(Da_t) * V over reacting cells
+        double logDaMolecularVolume;
+        double molecularMixingLimitedVolume; // Da_eta > threshold
+
+        void add(double k, double eps, double mLimit, double rate, double volume, double nu) {
+            cells++;
+            totalVolume += volume;
+            if (rate < minRate || mLimit <= 0 || eps <= 0) {
+                nonReactingVolume += volume;
+                return;
+            }
+            double tauChem = mLimit / rate;
+            double daTurbulent = (k / eps) / tauChem;
+            double daMolecular = Math.sqrt(nu / eps) / tauChem;
+
+            if (daTurbulent > daThreshold) {
+                mixingLimitedVolume += volume;
+            } else {
+                reactionLimitedVolume += volume;
+            }
+            if (daMolecular > daThreshold) {
+                molecularMixingLimitedVolume += volume;
+            }
+            logDaTurbulentVolume += Math.log10(daTurbulent) * volume;
+            logDaMolecularVolume += Math.log10(daMolecular) * volume;
+        }
+
+        void merge(RegimeStats other) {
+            cells += other.cells;
+            totalVolume += other.totalVolume;
+            mixingLimitedVolume += other.mixingLimitedVolume;
+            reactionLimitedVolume += other.reactionLimitedVolume;
+            nonReactingVolume += other.nonReactingVolume;
+            logDaTurbulentVolume += other.logDaTurbulentVolume;
+            logDaMolecularVolume += other.logDaMolecularVolume;
+            molecularMixingLimitedVolume += other.molecularMixingLimitedVolume;
+        }
+
+        double fraction(double volume) {
+            return totalVolume > 0 ? volume / totalVolume : 0.0;
+        }
+
+        void write(String path) throws IOException {
+            double reactingVolume = mixingLimitedVolume + reactionLimitedVolume;
+            PrintWriter writer = new PrintWriter(path, "UTF-8");
+            writer.println(
+                    "Cells,MixingLimitedFraction,ReactionLimitedFraction,NonReactingFraction,MolecularMixingLimitedFraction,MeanLog10DaTurbulent,MeanLog10DaMolecular");
+            writer.println(String.format("%d,%.6e,%.6e,%.6e,%.6e,%.6e,%.6e", cells, fraction(mixingLimitedVolume),
+                    fraction(reactionLimitedVolume), fraction(nonReactingVolume),
+                    fraction(molecularMixingLimitedVolume),
+                    reactingVolume > 0 ? logDaTurbulentVolume / reactingVolume : Double.NaN,
+                    reactingVolume > 0 ? logDaMolecularVolume / reactingVolume : Double.NaN));
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Simcenter STAR-CCM+ macro: ExportReactionFields.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Exports the cell fields needed by DamkohlerDiagnostics.java to
+// ReactionFields.csv, so the Damkohler analysis runs offline instead of as
+// field functions carried by the solver.
+public class ExportReactionFields extends StarMacro {
+
+    // RANS names; for LES use the "k" and "epsilon" functions from
+    // RecordTurbulenceChemStats, here and in DamkohlerDiagnostics
+    String TurbulentKineticEnergy = "TurbulentKineticEnergy";
+    String TurbulentDissipationRate = "TurbulentDissipationRate";
+
+    String[] fieldFunctions = { "mBa_2+", "mSO4_2-", "R_Bulk", "Volume" };
+
+    public void execute() {
+        exportReactionFieldsToCsv();
+    }
+
+    private void exportReactionFieldsToCsv() {
+
+        Simulation simulation = getActiveSimulation();
+        XyzInternalTable xyzInternalTable = simulation.getTableManager().createTable(XyzInternalTable.class);
+
+        List<Object> functions = new ArrayList<Object>();
+        functions.add(simulation.getFieldFunctionManager().getFunction(TurbulentKineticEnergy));
+        functions.add(simulation.getFieldFunctionManager().getFunction(TurbulentDissipationRate));
+        for (String name : fieldFunctions) {
+            functions.add(simulation.getFieldFunctionManager().getFunction(name));
+        }
+
+        xyzInternalTable.setFieldFunctions(new NeoObjectVector(functions.toArray()));
+        xyzInternalTable.setPresentationName("ReactionFields");
+        xyzInternalTable.getParts().setQuery(null);
+
+        Region region = simulation.getRegionManager().getRegion("Fluid");
+        xyzInternalTable.getParts().setObjects(region);
+        xyzInternalTable.extract();
+
+        String SessionDirectory = simulation.getSessionDir();
+        String fullPath = SessionDirectory + "/" + "ReactionFields.csv";
+        xyzInternalTable.export(fullPath, ",");
+    }
+}
@@ -7,16 +7,25 @@ concentrationNa2SO4=0.00113730770584103
 concentrationBaCl2=0.000835878753109641
 TurbulentSchmidtNumber=0.75
 Temperature=22
+FlowLibrary=$HOME/FlowLibrary
 
 rm *.java
 rm run*.slurm
+rm summary*.slurm
+rm diagnostics*.slurm
 rm libuser.so
 mkdir -p Results
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/CouetteReactiveStudyRst.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/WriteRunSummary.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/ExportReactionFields.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/DamkohlerDiagnostics.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/FlowLibrary/WarmStart.java
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/runUnix3.slurm
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/runXeon8.slurm
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/runXeon16.slurm
 wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/runXeon40.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/summaryUnix3.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ReactivePrl5/diagnosticsUnix3.slurm
 wget https://github.com/jrbentzon/starccm-scale-thermodynamics/releases/download/v0.3.3/libuser.so
 
 cp libuser.so Results/
@@ -29,3 +38,18 @@ sed "s/__concentrationNa2SO4__/$concentrationNa2SO4/" -i CouetteReactiveStudyRst
 sed "s/__concentrationBaCl2__/$concentrationBaCl2/" -i CouetteReactiveStudyRst.java
 sed "s/__TurbulentSchmidtNumber__/$TurbulentSchmidtNumber/" -i CouetteReactiveStudyRst.java
 sed "s/__Temperature__/$Temperature/" -i CouetteReactiveStudyRst.java
+
+sed "s/__RPM__/$RPM/" -i WriteRunSummary.java
+sed "s/__FlowRateMlMin__/$FlowRateMlMin/" -i WriteRunSummary.java
+sed "s/__RotorDiameter__/$RotorDiameter/" -i WriteRunSummary.java
+sed "s/__concentrationNa2SO4__/$concentrationNa2SO4/" -i WriteRunSummary.java
+sed "s/__concentrationBaCl2__/$concentrationBaCl2/" -i WriteRunSummary.java
+sed "s/__TurbulentSchmidtNumber__/$TurbulentSchmidtNumber/" -i WriteRunSummary.java
+sed "s/__Temperature__/$Temperature/" -i WriteRunSummary.java
+
+sed "s|__FlowLibrary__|$FlowLibrary|" -i WarmStart.java
+sed "s/__RPM__/$RPM/" -i WarmStart.java
+sed "s/__RotorDiameter__/$RotorDiameter/" -i WarmStart.java
+sed "s/__MeshSize__/$MeshSize/" -i WarmStart.java
+sed "s/__TurbulenceModel__/RANS-RST/" -i WarmStart.java
+sed "s/__TurbulentSchmidtNumber__/$TurbulentSchmidtNumber/" -i WarmStart.java
@@ -0,0 +1,89 @@
+// Simcenter STAR-CCM+ macro: WriteRunSummary.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+import star.base.report.*;
+
+// Writes RunSummary.csv for the catalogue used by SurrogateModel.java: the
+// study inputs (substituted by RstReactive.sh) and the outlet concentrations
+// averaged over the last averagingWindow seconds of the outlet monitors.
+public class WriteRunSummary extends StarMacro {
+
+    double RPM = __RPM__;
+    double FlowRateMlMin = __FlowRateMlMin__;
+    double RotorDiameter = __RotorDiameter__;
+    double concentrationNa2SO4 = __concentrationNa2SO4__;
+    double concentrationBaCl2 = __concentrationBaCl2__;
+    double TurbulentSchmidtNumber = __TurbulentSchmidtNumber__;
+    double Temperature = __Temperature__;
+
+    String[] outlets = { "BariteScale", "mSO4_2-", "mNa_1+", "mBa_2+", "mCl_1-", "SR" };
+    double averagingWindow = 10.0; // s
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        String SessionDirectory = simulation.getSessionDir();
+
+        StringBuilder header = new StringBuilder(
+                "RPM,FlowRateMlMin,RotorDiameter,concentrationNa2SO4,concentrationBaCl2,TurbulentSchmidtNumber,Temperature,PhysicalTime");
+        StringBuilder row = new StringBuilder(String.format("%s,%s,%s,%s,%s,%s,%s,%s", RPM, FlowRateMlMin,
+                RotorDiameter, concentrationNa2SO4, concentrationBaCl2, TurbulentSchmidtNumber, Temperature,
+                simulation.getSolution().getPhysicalTime()));
+
+        try {
+            Files.createDirectories(Paths.get(SessionDirectory + "/monitors"));
+
+            for (String outlet : outlets) {
+                String monitorName = "Mass Flow Averaged Outlet Concentration of " + outlet + " Monitor";
+                String path = SessionDirectory + "/monitors/" + monitorName.replace(" ", "") + ".csv";
+                simulation.getMonitorManager().getMonitor(monitorName).export(path);
+
+                header.append(",").append(outlet);
+                row.append(",").append(String.format("%.6e", tailAverage(path, averagingWindow)));
+            }
+
+            PrintWriter writer = new PrintWriter(SessionDirectory + "/RunSummary.csv", "UTF-8");
+            writer.println(header.toString());
+            writer.println(row.toString());
+            writer.close();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // Time-weighted mean of the monitor over its last window seconds
+    private double tailAverage(String path, double window) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        List<double[]> points = new ArrayList<double[]>();
+        for (int i = 1; i < lines.size(); i++) {
+            String[] cols = lines.get(i).replace("\"", "").split(",");
+            if (cols.length < 2) {
+                continue;
+            }
+            points.add(new double[] { Double.parseDouble(cols[0]), Double.parseDouble(cols[1]) });
+        }
+        if (points.isEmpty()) {
+            return Double.NaN;
+        }
+
+        double tEnd = points.get(points.size() - 1)[0];
+        double sum = 0;
+        double duration = 0;
+        for (int i = 1; i < points.size(); i++) {
+            double[] a = points.get(i - 1);
+            double[] b = points.get(i);
+            if (a[0] < tEnd - window) {
+                continue;
+            }
+            sum += 0.5 * (a[1] + b[1]) * (b[0] - a[0]);
+            duration += b[0] - a[0];
+        }
+        return duration > 0 ? sum / duration : points.get(points.size() - 1)[1];
+    }
+}
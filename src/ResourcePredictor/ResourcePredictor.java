@@ -0,0 +1,253 @@
+// Simcenter STAR-CCM+ macro: ResourcePredictor.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Picks the partition and task count for a Couette cell run before it is
+// submitted (predictResources.slurm). The cell count is estimated from the
+// geometry, base size, prism layers and refinement zones of CouetteCell.java and
+// scaled by the measured/estimated ratio of past runs in ResourceHistoryFile
+// (appended by CouetteCell.java and LesTorque.java). Seconds per step are fitted
+// per turbulence model as a * cells per task + b over the same history; memory
+// uses bytesPerCell of the model. Every partition in Partitions.txt and node
+// count is tried; the queue wait is estimated from the pending nodes in
+// QueueState.txt. The option with the shortest queue-plus-run time is written to
+// ResourcePlan.txt, all options to ResourcePrediction.csv.
+public class ResourcePredictor extends StarMacro {
+
+    String TurbulenceModel = "__TurbulenceModel__";
+    double RotorDiameter = __RotorDiameter__;
+    double RelMeshBaseSize = __MeshSize__;
+    int NoPrismLayers = __PrismLayers__;
+    long Steps = __Steps__;
+    String ResourceHistoryFile = "__ResourceHistoryFile__";
+    String CaseDirectory = "__CaseDirectory__";
+
+    // Geometry and refinement of CouetteCell.java [m]
+    double RotorHeight = 138e-3;
+    double StatorDiameter = 98e-3;
+    double StatorHeight = 140e-3;
+    double InletHoleDiameter = 5e-3;
+    double TubeLength = 30e-3;
+    double ShaftDiameter = 10e-3;
+    double refinementRelSize = 0.01;
+
+    // Used until the history holds runs of the model
+    double defaultCellSeconds = 3e-6; // s per cell per task and step
+    double defaultStepOverhead = 0.05; // s per step
+    int minCellsPerTask = 20000; // below this, more tasks mostly add communication
+    double timeLimitMargin = 1.5;
+
+    static final String HEADER = "Study,TurbulenceModel,Partition,Nodes,Tasks,Cells,RotorDiameter,RelMeshBaseSize,PrismLayers,SecondsPerStep";
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+
+        try {
+            List<String[]> history = new ArrayList<String[]>();
+            if (Files.exists(Paths.get(ResourceHistoryFile))) {
+                for (String line : Files.readAllLines(Paths.get(ResourceHistoryFile))) {
+                    String[] cols = line.split(",");
+                    // Runs outside slurm have no task count
+                    if (cols.length >= 10 && !cols[0].equals("Study") && Double.parseDouble(cols[4]) > 0
+                            && Double.parseDouble(cols[5]) > 0) {
+                        history.add(cols);
+                    }
+                }
+            }
+
+            // Cell count, scaled by the geometric mean of measured / estimated
+            double logRatio = 0;
+            int calibrationRuns = 0;
+            for (String[] run : history) {
+                double estimate = estimateCells(Double.parseDouble(run[6]), Double.parseDouble(run[7]),
+                        Integer.parseInt(run[8]));
+                logRatio += Math.log(Double.parseDouble(run[5]) / estimate);
+                calibrationRuns++;
+            }
+            double cellFactor = calibrationRuns > 0 ? Math.exp(logRatio / calibrationRuns) : 1.0;
+            double cells = cellFactor * estimateCells(RotorDiameter, RelMeshBaseSize, NoPrismLayers);
+
+            // secondsPerStep = a * cells / tasks + b, least squares over runs of the model
+            List<double[]> timing = new ArrayList<double[]>();
+            for (String[] run : history) {
+                if (run[1].equals(TurbulenceModel)) {
+                    timing.add(new double[] { Double.parseDouble(run[5]) / Double.parseDouble(run[4]),
+                            Double.parseDouble(run[9]) });
+                }
+            }
+            double[] fit = fitTiming(timing);
+            double bytesPerCell = bytesPerCell(TurbulenceModel);
+            Map<String, Double> pendingNodes = readQueueState();
+
+            simulation.println(String.format(
+                    "ResourcePredictor: %.3g cells (factor %.2f from %d runs), %.3g s per cell per task + %.3g s per step from %d %s runs",
+                    cells, cellFactor, calibrationRuns, fit[0], fit[1], timing.size(), TurbulenceModel));
+
+            PrintWriter writer = new PrintWriter(CaseDirectory + "/ResourcePrediction.csv", "UTF-8");
+            writer.println("Partition,Nodes,Tasks,CellsPerTask,MemoryPerCoreMB,SecondsPerStep,RunHours,QueueHours,TotalHours,Feasible");
+            String[] best = null;
+            double bestHours = Double.MAX_VALUE;
+            boolean bestFeasible = false;
+            for (String line : Files.readAllLines(Paths.get(CaseDirectory, "Partitions.txt"))) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                // name coresPerNode memoryPerNodeGB nodes averageJobHours maxHours slurm
+                String[] p = line.split("\\s+");
+                if (!Files.exists(Paths.get(CaseDirectory, p[6]))) {
+                    continue;
+                }
+                int coresPerNode = Integer.parseInt(p[1]);
+                double memoryPerCoreMB = Double.parseDouble(p[2]) * 1024 / coresPerNode;
+                int partitionNodes = Integer.parseInt(p[3]);
+                double averageJobHours = Double.parseDouble(p[4]);
+                double maxHours = Double.parseDouble(p[5]);
+
+                for (int nodes = 1; nodes <= partitionNodes; nodes++) {
+                    int tasks = nodes * coresPerNode;
+                    double cellsPerTask = cells / tasks;
+                    if (nodes > 1 && cellsPerTask < minCellsPerTask) {
+                        break;
+                    }
+                    double memory = cellsPerTask * bytesPerCell / 1e6;
+                    double secondsPerStep = fit[0] * cellsPerTask + fit[1];
+                    double runHours = Steps * secondsPerStep / 3600.0;
+                    // Nodes ahead in the queue, plus ours, drained over the partition
+                    double queueHours = (pendingNodes.getOrDefault(p[0], 0.0) + nodes) / partitionNodes
+                            * averageJobHours;
+                    boolean feasible = memory <= memoryPerCoreMB && runHours * timeLimitMargin <= maxHours;
+                    double total = runHours + queueHours;
+                    writer.println(String.format("%s,%d,%d,%.0f,%.0f,%.4g,%.3f,%.3f,%.3f,%s", p[0], nodes, tasks,
+                            cellsPerTask, memory, secondsPerStep, runHours, queueHours, total, feasible));
+
+                    if ((feasible && !bestFeasible) || (feasible == bestFeasible && total < bestHours)) {
+                        best = new String[] { p[0], Integer.toString(nodes), Integer.toString(coresPerNode), p[6],
+                                timeLimit(Math.min(runHours * timeLimitMargin, maxHours)),
+                                String.format("%.0f", memory), String.format("%.4g", secondsPerStep),
+                                String.format("%.2f", runHours), String.format("%.2f", queueHours) };
+                        bestHours = total;
+                        bestFeasible = feasible;
+                    }
+                }
+            }
+            writer.close();
+
+            if (best == null) {
+                simulation.println("ResourcePredictor: no partition with a run script in " + CaseDirectory);
+                return;
+            }
+            PrintWriter plan = new PrintWriter(CaseDirectory + "/ResourcePlan.txt", "UTF-8");
+            plan.println("Partition=" + best[0]);
+            plan.println("Nodes=" + best[1]);
+            plan.println("TasksPerNode=" + best[2]);
+            plan.println("Slurm=" + best[3]);
+            plan.println("TimeLimit=" + best[4]);
+            plan.println(String.format("Cells=%.0f", cells));
+            plan.println("MemoryPerCoreMB=" + best[5]);
+            plan.println("SecondsPerStep=" + best[6]);
+            plan.println("RunHours=" + best[7]);
+            plan.println("QueueHours=" + best[8]);
+            plan.close();
+            simulation.println(String.format("ResourcePredictor: %s, %s nodes x %s tasks, %s h run + %s h queue%s",
+                    best[0], best[1], best[2], best[7], best[8], bestFeasible ? "" : " (exceeds memory or time limit)"));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // Volume of each refinement zone over its cell size cubed, plus one cell per
+    // prism layer on every gap-sized wall face
+    double estimateCells(double rotorDiameter, double relMeshBaseSize, int prismLayers) {
+        double R1 = rotorDiameter * 0.5;
+        double R2 = StatorDiameter * 0.5;
+        double Rs = ShaftDiameter * 0.5;
+        double Rh = InletHoleDiameter * 0.5;
+        double meshBaseSize = relMeshBaseSize * (R2 - R1);
+        double gapCell = meshBaseSize * refinementRelSize;
+        double tubeCell = 0.5 * gapCell;
+
+        double cellVolume = Math.PI * R2 * R2 * StatorHeight - Math.PI * R1 * R1 * RotorHeight
+                - Math.PI * Rs * Rs * (StatorHeight - RotorHeight);
+        double tubeVolume = 4 * Math.PI * Rh * Rh * TubeLength;
+        double wallArea = 2 * Math.PI * (R1 * RotorHeight + R2 * StatorHeight)
+                + 2 * Math.PI * (R1 * R1 - Rs * Rs) + 2 * Math.PI * R2 * R2;
+
+        return cellVolume / Math.pow(gapCell, 3) + tubeVolume / Math.pow(tubeCell, 3)
+                + prismLayers * wallArea / (gapCell * gapCell);
+    }
+
+    // { a, b } of secondsPerStep = a * cellsPerTask + b
+    double[] fitTiming(List<double[]> timing) {
+        int n = timing.size();
+        if (n == 0) {
+            return new double[] { defaultCellSeconds, defaultStepOverhead };
+        }
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (double[] point : timing) {
+            sx += point[0];
+            sy += point[1];
+            sxx += point[0] * point[0];
+            sxy += point[0] * point[1];
+        }
+        double denominator = n * sxx - sx * sx;
+        if (n < 2 || denominator <= 1e-12 * n * sxx) {
+            // One load per task only - keep the default overhead
+            return new double[] { Math.max((sy - n * defaultStepOverhead) / sx, 0), defaultStepOverhead };
+        }
+        double a = (n * sxy - sx * sy) / denominator;
+        double b = (sy - a * sx) / n;
+        if (a <= 0 || b < 0) {
+            return new double[] { sy / sx, 0 };
+        }
+        return new double[] { a, b };
+    }
+
+    // Rough STAR-CCM+ memory per cell, double precision, per solved model
+    double bytesPerCell(String model) {
+        switch (model) {
+        case "Laminar":
+            return 0.8e3;
+        case "RANS-kOmega":
+        case "RANS-kEpsilon":
+            return 1.0e3;
+        case "RANS-RST":
+            return 1.4e3;
+        case "LES":
+            return 1.6e3; // incl. mean and Reynolds stress monitors
+        default:
+            return 1.5e3;
+        }
+    }
+
+    // Pending nodes per partition, "<partition> <nodes>" per line
+    Map<String, Double> readQueueState() {
+        Map<String, Double> pending = new HashMap<String, Double>();
+        Path path = Paths.get(CaseDirectory, "QueueState.txt");
+        try {
+            if (Files.exists(path)) {
+                for (String line : Files.readAllLines(path)) {
+                    String[] cols = line.trim().split("\\s+");
+                    if (cols.length == 2) {
+                        pending.put(cols[0], Double.parseDouble(cols[1]));
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            getActiveSimulation().println(ex);
+        }
+        return pending;
+    }
+
+    String timeLimit(double hours) {
+        long minutes = (long) Math.ceil(Math.max(hours, 0.25) * 60);
+        return String.format("%d-%02d:%02d:00", minutes / 1440, (minutes % 1440) / 60, minutes % 60);
+    }
+}
@@ -221,11 +221,11 @@ public class RizkallaPhi extends StarMacro {
                                 "-0.5*${mSO4_2-}*${k1}*pow(${UserPitzerActivityCoefficient},2)/pow(10,-9.87)",
                                 dimensionless);
 
-                SetPassiveScalarWallFlux(0, "R_SO4_Wall", "dRdmSO4_Wall");
-                SetPassiveScalarWallFlux(2, "R_Ba_Wall", "dRdmBa_Wall");
-                SetPassiveScalarWallMassSource(0, "R_SO4_Bulk", "dRdmSO4_Bulk");
-                SetPassiveScalarWallMassSource(2, "R_Ba_Bulk", "dRdmBa_Bulk");
-                SetPassiveScalarWallMassSource(4, "R_Bulk", "dRdmBaSO4_Bulk");
+                SetPassiveScalarWallFlux("mSO4_2-", "R_SO4_Wall", "dRdmSO4_Wall");
+                SetPassiveScalarWallFlux("mBa_2+", "R_Ba_Wall", "dRdmBa_Wall");
+                SetPassiveScalarWallMassSource("mSO4_2-", "R_SO4_Bulk", "dRdmSO4_Bulk");
+                SetPassiveScalarWallMassSource("mBa_2+", "R_Ba_Bulk", "dRdmBa_Bulk");
+                SetPassiveScalarWallMassSource("BariteScale", "R_Bulk", "dRdmBaSO4_Bulk");
         }
 
         private void recordAndPlotReport(String reportName) {
@@ -739,9 +739,10 @@ public class RizkallaPhi extends StarMacro {
                 massFlowRateProfile.getMethod(ConstantScalarProfileMethod.class).getQuantity().setValue(massFlowSi);
         }
 
-        private void SetPassiveScalarWallFlux(int scalarInd, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
+        private void SetPassiveScalarWallFlux(String scalar, String fluxFieldFunc, String FluxDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
+                int scalarInd = scalarIndex(scalar);
                 Region region = simulation.getRegionManager().getRegion(REGIONNAME);
                 Boundary boundary = region.getBoundaryManager().getBoundary(WALLNAME);
 
@@ -774,10 +775,21 @@ public class RizkallaPhi extends StarMacro {
                                 .setFieldFunction(FluxDerivativeFieldFunction);
         }
 
-        private void SetPassiveScalarWallMassSource(int scalarInd, String sourceFieldFunc,
+        // Composite profile index of a passive scalar, its position in scalars
+        private int scalarIndex(String scalar) {
+                int index = Arrays.asList(scalars).indexOf(scalar);
+                if (index < 0) {
+                        throw new IllegalArgumentException("Unknown scalar " + scalar + ", registered: "
+                                        + Arrays.toString(scalars));
+                }
+                return index;
+        }
+
+        private void SetPassiveScalarWallMassSource(String scalar, String sourceFieldFunc,
                         String sourceDerivativeFieldFunc) {
 
                 Simulation simulation = getActiveSimulation();
+                int scalarInd = scalarIndex(scalar);
 
                 Region region = simulation.getRegionManager().getRegion(REGIONNAME);
 
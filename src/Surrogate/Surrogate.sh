@@ -0,0 +1,9 @@
+#wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/Surrogate/Surrogate.sh
+# Run from the root of a ReactivePrl5 sweep after summaryUnix3.slurm has written
+# a RunSummary.csv in every run folder. Optional SurrogateQueries.csv in the root:
+# RPM,FlowRateMlMin,RotorDiameter,concentrationNa2SO4,concentrationBaCl2,TurbulentSchmidtNumber
+
+rm SurrogateModel.java
+rm surrogate.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/Surrogate/SurrogateModel.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/Surrogate/surrogate.slurm
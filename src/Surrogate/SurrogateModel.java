@@ -0,0 +1,393 @@
+// Simcenter STAR-CCM+ macro: SurrogateModel.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.util.stream.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Gaussian-process surrogate of an outlet quantity over the study inputs.
+// Trains on every RunSummary.csv (written by WriteRunSummary.java) found below
+// the session directory, predicts SurrogateQueries.csv with uncertainty and
+// proposes the next runs where the surrogate is least certain.
+public class SurrogateModel extends StarMacro {
+
+    String[] inputs = { "RPM", "FlowRateMlMin", "RotorDiameter", "concentrationNa2SO4", "concentrationBaCl2",
+            "TurbulentSchmidtNumber" };
+    String output = "BariteScale";
+    boolean logOutput = true; // concentrations span decades, fit log10 of the output
+
+    int hyperparameterSamples = 4000;
+    int refinementRounds = 30;
+    int nRecommendations = 5;
+    int candidateSamples = 5000;
+    long seed = 42;
+
+    String QueryFile = "SurrogateQueries.csv";
+    String PredictionFile = "SurrogatePredictions.csv";
+    String RecommendationFile = "SurrogateNextRuns.csv";
+
+    String SessionDirectory = "";
+
+    // Training data, inputs scaled to [0, 1] and output standardized
+    double[][] X;
+    double[] y;
+    double[] xMin, xRange;
+    boolean[] varies; // inputs held constant across the catalogue are not proposed to vary
+    double yMean, yStd;
+
+    // Fitted model: log length scales per input, log signal and log noise variance
+    double[] theta;
+    double[][] L;
+    double[] alpha;
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        SessionDirectory = simulation.getSessionDir();
+
+        try {
+            List<double[]> rows = readSummaries(Paths.get(SessionDirectory));
+            simulation.println("SurrogateModel: " + rows.size() + " runs catalogued");
+            if (rows.size() < 2) {
+                return;
+            }
+            setTrainingData(rows);
+
+            theta = fitHyperparameters();
+            factorize(X, theta);
+            simulation.println("SurrogateModel: log marginal likelihood " + logMarginalLikelihood(X, theta));
+            simulation.println("SurrogateModel: leave-one-out RMSE (standardized) " + leaveOneOutError());
+
+            if (Files.exists(Paths.get(SessionDirectory, QueryFile))) {
+                writePredictions();
+            }
+            writeRecommendations();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private List<double[]> readSummaries(Path root) throws IOException {
+        List<Path> files;
+        Stream<Path> walk = Files.walk(root);
+        files = walk.filter(p -> p.getFileName().toString().equals("RunSummary.csv")).collect(Collectors.toList());
+        walk.close();
+
+        List<double[]> rows = new ArrayList<double[]>();
+        for (Path file : files) {
+            List<String> lines = Files.readAllLines(file);
+            List<String> header = Arrays.asList(lines.get(0).split(","));
+            for (int i = 1; i < lines.size(); i++) {
+                String[] cols = lines.get(i).split(",");
+                double[] row = new double[inputs.length + 1];
+                for (int j = 0; j < inputs.length; j++) {
+                    row[j] = Double.parseDouble(cols[header.indexOf(inputs[j])]);
+                }
+                row[inputs.length] = Double.parseDouble(cols[header.indexOf(output)]);
+                if (!Double.isNaN(row[inputs.length]) && (!logOutput || row[inputs.length] > 0)) {
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void setTrainingData(List<double[]> rows) {
+        int n = rows.size();
+        int d = inputs.length;
+        xMin = new double[d];
+        xRange = new double[d];
+        varies = new boolean[d];
+        for (int j = 0; j < d; j++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (double[] row : rows) {
+                min = Math.min(min, row[j]);
+                max = Math.max(max, row[j]);
+            }
+            xMin[j] = min;
+            xRange[j] = max > min ? max - min : 1.0;
+            varies[j] = max > min;
+        }
+
+        X = new double[n][];
+        y = new double[n];
+        for (int i = 0; i < n; i++) {
+            X[i] = scale(rows.get(i));
+            y[i] = logOutput ? Math.log10(rows.get(i)[d]) : rows.get(i)[d];
+        }
+        yMean = Arrays.stream(y).average().getAsDouble();
+        double var = Arrays.stream(y).map(v -> (v - yMean) * (v - yMean)).sum() / n;
+        yStd = var > 0 ? Math.sqrt(var) : 1.0;
+        for (int i = 0; i < n; i++) {
+            y[i] = (y[i] - yMean) / yStd;
+        }
+    }
+
+    private double[] scale(double[] raw) {
+        double[] x = new double[inputs.length];
+        for (int j = 0; j < inputs.length; j++) {
+            x[j] = (raw[j] - xMin[j]) / xRange[j];
+        }
+        return x;
+    }
+
+    // Random search over the hyperparameters followed by shrinking local
+    // perturbations; all candidates of a round are evaluated in parallel.
+    private double[] fitHyperparameters() {
+        int d = inputs.length;
+        Random random = new Random(seed);
+
+        double[][] candidates = new double[hyperparameterSamples][d + 2];
+        for (double[] c : candidates) {
+            for (int j = 0; j < d; j++) {
+                c[j] = Math.log(0.05 + 3.0 * random.nextDouble());
+            }
+            c[d] = Math.log(0.1 + 3.0 * random.nextDouble());
+            c[d + 1] = Math.log(1e-6 + 0.1 * random.nextDouble());
+        }
+        double[] best = bestOf(candidates);
+        double bestValue = logMarginalLikelihood(X, best);
+
+        double step = 0.5;
+        for (int round = 0; round < refinementRounds; round++) {
+            double[][] local = new double[200][];
+            for (int k = 0; k < local.length; k++) {
+                local[k] = best.clone();
+                for (int j = 0; j < local[k].length; j++) {
+                    local[k][j] += step * random.nextGaussian();
+                }
+                local[k][d + 1] = Math.max(local[k][d + 1], Math.log(1e-8));
+            }
+            double[] candidate = bestOf(local);
+            double value = logMarginalLikelihood(X, candidate);
+            if (value > bestValue) {
+                best = candidate;
+                bestValue = value;
+            } else {
+                step *= 0.7;
+            }
+        }
+        return best;
+    }
+
+    private double[] bestOf(double[][] candidates) {
+        double[] values = IntStream.range(0, candidates.length).parallel()
+                .mapToDouble(i -> logMarginalLikelihood(X, candidates[i])).toArray();
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return candidates[best];
+    }
+
+    private double kernel(double[] a, double[] b, double[] theta) {
+        int d = a.length;
+        double r2 = 0;
+        for (int j = 0; j < d; j++) {
+            double diff = (a[j] - b[j]) / Math.exp(theta[j]);
+            r2 += diff * diff;
+        }
+        return Math.exp(theta[d]) * Math.exp(-0.5 * r2);
+    }
+
+    private double[][] covariance(double[][] points, double[] theta) {
+        int n = points.length;
+        double noise = Math.exp(theta[points[0].length + 1]);
+        double[][] K = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                K[i][j] = kernel(points[i], points[j], theta);
+                K[j][i] = K[i][j];
+            }
+            K[i][i] += noise + 1e-10;
+        }
+        return K;
+    }
+
+    // Returns null if the matrix is not positive definite
+    private double[][] cholesky(double[][] A) {
+        int n = A.length;
+        double[][] C = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = A[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum -= C[i][k] * C[j][k];
+                }
+                if (i == j) {
+                    if (sum <= 0) {
+                        return null;
+                    }
+                    C[i][i] = Math.sqrt(sum);
+                } else {
+                    C[i][j] = sum / C[j][j];
+                }
+            }
+        }
+        return C;
+    }
+
+    private double[] forward(double[][] C, double[] b) {
+        int n = b.length;
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            double sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= C[i][k] * x[k];
+            }
+            x[i] = sum / C[i][i];
+        }
+        return x;
+    }
+
+    private double[] backward(double[][] C, double[] b) {
+        int n = b.length;
+        double[] x = new double[n];
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= C[k][i] * x[k];
+            }
+            x[i] = sum / C[i][i];
+        }
+        return x;
+    }
+
+    private double logMarginalLikelihood(double[][] points, double[] theta) {
+        double[][] C = cholesky(covariance(points, theta));
+        if (C == null) {
+            return -Double.MAX_VALUE;
+        }
+        double[] a = backward(C, forward(C, y));
+        double value = 0;
+        for (int i = 0; i < y.length; i++) {
+            value -= 0.5 * y[i] * a[i] + Math.log(C[i][i]);
+        }
+        return value - 0.5 * y.length * Math.log(2 * Math.PI);
+    }
+
+    private void factorize(double[][] points, double[] theta) {
+        L = cholesky(covariance(points, theta));
+        alpha = backward(L, forward(L, y));
+    }
+
+    // Standardized mean and variance at a scaled input; O(n^2) per call
+    private double[] predictScaled(double[] x, double[][] points, double[][] C, double[] a) {
+        int n = points.length;
+        double[] k = new double[n];
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            k[i] = kernel(x, points[i], theta);
+            mean += k[i] * (a != null ? a[i] : 0);
+        }
+        double[] v = forward(C, k);
+        double var = kernel(x, x, theta);
+        for (int i = 0; i < n; i++) {
+            var -= v[i] * v[i];
+        }
+        return new double[] { mean, Math.max(var, 0) };
+    }
+
+    // Mean and standard deviation in output units (log10 units if logOutput)
+    public double[] predict(double[] raw) {
+        double[] p = predictScaled(scale(raw), X, L, alpha);
+        return new double[] { yMean + yStd * p[0], yStd * Math.sqrt(p[1]) };
+    }
+
+    private double leaveOneOutError() {
+        // Closed form LOO residual: alpha_i / (K^-1)_ii
+        int n = y.length;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double[] e = new double[n];
+            e[i] = 1;
+            double kInvII = backward(L, forward(L, e))[i];
+            double r = alpha[i] / kInvII;
+            sum += r * r;
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    private void writePredictions() throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(SessionDirectory, QueryFile));
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+
+        PrintWriter writer = new PrintWriter(SessionDirectory + "/" + PredictionFile, "UTF-8");
+        writer.println(String.join(",", inputs) + "," + output + "," + output + "_Lower95," + output + "_Upper95");
+        long start = System.nanoTime();
+        for (int i = 1; i < lines.size(); i++) {
+            String[] cols = lines.get(i).split(",");
+            double[] raw = new double[inputs.length];
+            for (int j = 0; j < inputs.length; j++) {
+                raw[j] = Double.parseDouble(cols[header.indexOf(inputs[j])]);
+            }
+            double[] p = predict(raw);
+            writer.println(join(raw) + "," + String.format("%.6e,%.6e,%.6e", back(p[0]), back(p[0] - 1.96 * p[1]),
+                    back(p[0] + 1.96 * p[1])));
+        }
+        writer.close();
+
+        getActiveSimulation().println(String.format("SurrogateModel: %d predictions in %.1f us each",
+                lines.size() - 1, (System.nanoTime() - start) / 1e3 / Math.max(1, lines.size() - 1)));
+    }
+
+    // Greedy maximum-variance design: the variance does not depend on the
+    // unknown outcome, so each chosen run is added to the design without a value.
+    private void writeRecommendations() throws IOException {
+        Random random = new Random(seed + 1);
+        int d = inputs.length;
+        double[][] candidates = new double[candidateSamples][d];
+        for (double[] c : candidates) {
+            for (int j = 0; j < d; j++) {
+                c[j] = varies[j] ? random.nextDouble() : 0.0;
+            }
+        }
+
+        List<double[]> design = new ArrayList<double[]>(Arrays.asList(X));
+        PrintWriter writer = new PrintWriter(SessionDirectory + "/" + RecommendationFile, "UTF-8");
+        writer.println(String.join(",", inputs) + ",PredictedStd");
+
+        for (int r = 0; r < nRecommendations; r++) {
+            final double[][] points = design.toArray(new double[0][]);
+            final double[][] C = cholesky(covariance(points, theta));
+            if (C == null) {
+                break;
+            }
+            double[] variances = IntStream.range(0, candidates.length).parallel()
+                    .mapToDouble(i -> predictScaled(candidates[i], points, C, null)[1]).toArray();
+            int best = 0;
+            for (int i = 1; i < variances.length; i++) {
+                if (variances[i] > variances[best]) {
+                    best = i;
+                }
+            }
+            design.add(candidates[best]);
+
+            double[] raw = new double[d];
+            for (int j = 0; j < d; j++) {
+                raw[j] = xMin[j] + candidates[best][j] * xRange[j];
+            }
+            writer.println(join(raw) + String.format(",%.6e", yStd * Math.sqrt(variances[best])));
+        }
+        writer.close();
+    }
+
+    private double back(double value) {
+        return logOutput ? Math.pow(10, value) : value;
+    }
+
+    private String join(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < values.length; j++) {
+            sb.append(j > 0 ? "," : "").append(values[j]);
+        }
+        return sb.toString();
+    }
+}
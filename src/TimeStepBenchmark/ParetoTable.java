@@ -0,0 +1,91 @@
+// Simcenter STAR-CCM+ macro: ParetoTable.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.util.stream.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+
+// Cost against accuracy from the TimeStepBenchmark.csv of every case folder
+// below BenchmarkDirectory, per study type. The case with the smallest time step
+// is the reference; torque, outlet concentration and shear errors are relative to
+// it, and the cost is the wall time per simulated revolution. A case is on the Pareto front when no other case of the same study
+// is both cheaper and more accurate (largest of the three errors).
+public class ParetoTable extends StarMacro {
+
+    String BenchmarkDirectory = "__BenchmarkDirectory__";
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+
+        try {
+            List<String> lines = new ArrayList<String>();
+            List<Path> files = Files.walk(Paths.get(BenchmarkDirectory), 3)
+                    .filter(path -> path.getFileName().toString().equals("TimeStepBenchmark.csv"))
+                    .collect(Collectors.toList());
+            for (Path file : files) {
+                lines.addAll(Files.readAllLines(file));
+            }
+            Map<String, List<String[]>> studies = new TreeMap<String, List<String[]>>();
+            for (String line : lines) {
+                String[] cols = line.split(",");
+                // Header rows, one per case file
+                if (cols.length >= 11 && !cols[0].equals("StudyType")) {
+                    studies.computeIfAbsent(cols[0], k -> new ArrayList<String[]>()).add(cols);
+                }
+            }
+
+            PrintWriter writer = new PrintWriter(BenchmarkDirectory + "/ParetoTable.csv", "UTF-8");
+            writer.println(
+                    "StudyType,TargetCourant,TimeStep,WallPerRevolution,RelativeCost,TorqueError,OutletError,ShearError,MaxError,Pareto");
+            for (Map.Entry<String, List<String[]>> study : studies.entrySet()) {
+                List<String[]> cases = study.getValue();
+                cases.sort(Comparator.comparingDouble(c -> Double.parseDouble(c[3])));
+                String[] reference = cases.get(0);
+
+                int n = cases.size();
+                double[] cost = new double[n];
+                double[][] errors = new double[n][];
+                double[] maxError = new double[n];
+                for (int i = 0; i < n; i++) {
+                    cost[i] = Double.parseDouble(cases.get(i)[7]);
+                    errors[i] = new double[] { relativeError(cases.get(i)[8], reference[8]),
+                            relativeError(cases.get(i)[9], reference[9]), relativeError(cases.get(i)[10], reference[10]) };
+                    for (double error : errors[i]) {
+                        if (!Double.isNaN(error)) {
+                            maxError[i] = Math.max(maxError[i], error);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < n; i++) {
+                    boolean pareto = true;
+                    for (int j = 0; j < n; j++) {
+                        if (j != i && cost[j] <= cost[i] && maxError[j] <= maxError[i]
+                                && (cost[j] < cost[i] || maxError[j] < maxError[i])) {
+                            pareto = false;
+                        }
+                    }
+                    writer.println(String.format("%s,%s,%s,%.4e,%.3f,%.4e,%.4e,%.4e,%.4e,%s", study.getKey(),
+                            cases.get(i)[1], cases.get(i)[3], cost[i], cost[i] / cost[0], errors[i][0], errors[i][1],
+                            errors[i][2], maxError[i], pareto));
+                }
+                simulation.println(String.format("ParetoTable: %s, %d cases, reference CFL %s", study.getKey(), n,
+                        reference[1]));
+            }
+            writer.close();
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    private double relativeError(String value, String reference) {
+        double v = Double.parseDouble(value);
+        double r = Double.parseDouble(reference);
+        return Math.abs(v - r) / Math.max(Math.abs(r), 1e-30);
+    }
+}
@@ -0,0 +1,170 @@
+// Simcenter STAR-CCM+ macro: TimeStepBenchmark.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+import star.base.report.*;
+import star.flow.*;
+import star.meshing.*;
+
+// One case of the time-step benchmark (TimeStepBenchmark.sh). The loaded,
+// developed unsteady reference flow is continued with the time step the study
+// macros derive from targetCourant and the mesh base size stored in the .sim.
+// Studies saved with adaptive time stepping (the reactive ones) keep it, with the
+// Convective CFL provider retargeted to targetCourant (max 5 x targetCourant, as
+// their EnableAdaptiveTimeStepping does), since the provider would override a
+// fixed time step; TimeStep is then the mean step and Steps is read from the
+// time-level counter. After spinUpRevolutions to forget the old time step, Rotor Moment, outlet concentration and rotor wall shear are averaged
+// over sampledRevolutions while the wall time is measured. Each case writes its
+// row to TimeStepBenchmark.csv in its own folder, since the cases run as
+// concurrent jobs; ParetoTable.java collects and compares them.
+public class TimeStepBenchmark extends StarMacro {
+
+    String StudyType = "__StudyType__";
+    double targetCourant = __TargetCourant__;
+
+    double spinUpRevolutions = 2;
+    double sampledRevolutions = 3;
+    int samplesPerRevolution = 20;
+    String OutletReport = "Mass Flow Averaged Outlet Concentration of SR";
+    String ShearReport = "Rotor Wall Shear Stress";
+
+    static final String HEADER = "StudyType,TargetCourant,TimeStepMode,TimeStep,Steps,WallSeconds,WallPerStep,WallPerRevolution,Torque,OutletConcentration,Shear";
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+
+        double RPM = getParameter("RPM") * 60.0 / (2.0 * Math.PI); // stored in rad/s
+        double RotorDiameter = getParameter("RotorDiameter");
+        double revolutionTime = 60.0 / RPM;
+
+        String mode;
+        double TimeStep;
+        if (setAdaptiveCflTarget(targetCourant, targetCourant * 5)) {
+            mode = "adaptive";
+        } else {
+            // Relative to the gap, as RelMeshBaseSize in the study macros
+            double gap = 0.5 * (getParameter("StatorDiameter") - RotorDiameter);
+            AutoMeshOperation autoMeshOperation = ((AutoMeshOperation) simulation.get(MeshOperationManager.class)
+                    .getObject("Automated Mesh"));
+            double RelMeshBaseSize = autoMeshOperation.getDefaultValues().get(BaseSize.class).getSIValue() / gap;
+            TimeStep = targetCourant * 1e-3 * (500.0 / RPM) * (RelMeshBaseSize / 20.0) * (80.0e-3 / RotorDiameter); // s
+            setTimeStep(TimeStep);
+            mode = "fixed";
+        }
+        Report torque = simulation.getReportManager().getReport("Rotor Moment");
+        Report outlet = simulation.getReportManager().has(OutletReport)
+                ? simulation.getReportManager().getReport(OutletReport)
+                : null;
+        Report shear = RotorShearReport();
+
+        RunTime(spinUpRevolutions * revolutionTime);
+
+        double sumTorque = 0;
+        double sumOutlet = 0;
+        double sumShear = 0;
+        int samples = (int) Math.round(sampledRevolutions * samplesPerRevolution);
+        double startTime = simulation.getSolution().getPhysicalTime();
+        int startStep = simulation.getSimulationIterator().getCurrentTimeLevel();
+        long wallStart = System.currentTimeMillis();
+        for (int i = 0; i < samples; i++) {
+            RunTime(revolutionTime / samplesPerRevolution);
+            sumTorque += torque.getReportMonitorValue();
+            sumOutlet += outlet != null ? outlet.getReportMonitorValue() : Double.NaN;
+            sumShear += shear.getReportMonitorValue();
+        }
+        double wallSeconds = (System.currentTimeMillis() - wallStart) / 1000.0;
+        double simulated = simulation.getSolution().getPhysicalTime() - startTime;
+        long steps = simulation.getSimulationIterator().getCurrentTimeLevel() - startStep;
+        TimeStep = simulated / Math.max(1, steps);
+
+        try {
+            PrintWriter writer = new PrintWriter(simulation.getSessionDir() + "/TimeStepBenchmark.csv", "UTF-8");
+            writer.println(HEADER);
+            writer.println(String.format("%s,%s,%s,%.6e,%d,%.1f,%.4e,%.4e,%.6e,%.6e,%.6e", StudyType, targetCourant,
+                    mode, TimeStep, steps, wallSeconds, wallSeconds / Math.max(1, steps),
+                    wallSeconds * revolutionTime / simulated, sumTorque / samples, sumOutlet / samples,
+                    sumShear / samples));
+            writer.close();
+            simulation.println(String.format("TimeStepBenchmark: %s CFL %s (%s), %d steps in %.0f s", StudyType,
+                    targetCourant, mode, steps, wallSeconds));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // Area-averaged wall shear stress magnitude on the rotor
+    private Report RotorShearReport() {
+        Simulation simulation = getActiveSimulation();
+        if (simulation.getReportManager().has(ShearReport)) {
+            return simulation.getReportManager().getReport(ShearReport);
+        }
+        AreaAverageReport areaAverageReport = simulation.getReportManager().createReport(AreaAverageReport.class);
+        areaAverageReport.setPresentationName(ShearReport);
+        PrimitiveFieldFunction wallShearStress = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager()
+                .getFunction("WallShearStress"));
+        areaAverageReport.setFieldFunction(wallShearStress.getMagnitudeFunction());
+        areaAverageReport.getParts().setQuery(null);
+        areaAverageReport.getParts().setObjects(
+                simulation.getRegionManager().getRegion("Fluid").getBoundaryManager().getBoundary("Rotor"));
+        return areaAverageReport;
+    }
+
+    private void RunTime(double time) {
+        Simulation simulation = getActiveSimulation();
+
+        PhysicalTimeStoppingCriterion physicalTimeStoppingCriterion = ((PhysicalTimeStoppingCriterion) simulation
+                .getSolverStoppingCriterionManager().getSolverStoppingCriterion("Maximum Physical Time"));
+
+        double curTime = simulation.getSolution().getPhysicalTime();
+        physicalTimeStoppingCriterion.getMaximumTime().setValue(curTime + time);
+
+        simulation.getSimulationIterator().run();
+    }
+
+    // Retargets the Convective CFL provider of an adaptive time-stepping model;
+    // false when no continuum steps adaptively
+    private boolean setAdaptiveCflTarget(double meanCfl, double maxCfl) {
+        Simulation simulation = getActiveSimulation();
+        boolean adaptive = false;
+        for (Continuum continuum : simulation.getContinuumManager().getObjects()) {
+            if (!(continuum instanceof PhysicsContinuum)) {
+                continue;
+            }
+            AdaptiveTimeStepModel adaptiveTimeStepModel = ((PhysicsContinuum) continuum).getModelManager()
+                    .getModel(AdaptiveTimeStepModel.class);
+            if (adaptiveTimeStepModel == null) {
+                continue;
+            }
+            for (Object provider : adaptiveTimeStepModel.getTimeStepProviderManager().getObjects()) {
+                if (provider instanceof ConvectiveCflTimeStepProvider) {
+                    ((ConvectiveCflTimeStepProvider) provider).getTargetMeanCfl().setValue(meanCfl);
+                    ((ConvectiveCflTimeStepProvider) provider).getTargetMaxCfl().setValue(maxCfl);
+                    adaptive = true;
+                }
+            }
+        }
+        return adaptive;
+    }
+
+    private void setTimeStep(double deltat) {
+        Simulation simulation = getActiveSimulation();
+
+        ImplicitUnsteadySolver implicitUnsteadySolver = ((ImplicitUnsteadySolver) simulation.getSolverManager()
+                .getSolver(ImplicitUnsteadySolver.class));
+
+        implicitUnsteadySolver.getTimeStep().setValue(deltat);
+    }
+
+    private double getParameter(String name) {
+        Simulation simulation = getActiveSimulation();
+        ScalarGlobalParameter sParameter = (ScalarGlobalParameter) simulation.get(GlobalParameterManager.class)
+                .getObject(name);
+        return sParameter.getQuantity().getSIValue();
+    }
+}
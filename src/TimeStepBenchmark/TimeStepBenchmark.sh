@@ -0,0 +1,35 @@
+#!/bin/bash
+#wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TimeStepBenchmark/TimeStepBenchmark.sh
+# Run in a folder with one developed unsteady reference .sim per study type,
+# named <StudyType>.sim (e.g. TorqueLes.sim, ReactiveRst.sim). Every study is
+# continued at each Courant target in its own folder, and ParetoTable.csv is
+# written here once all cases have finished.
+cwd=$(pwd)
+
+rm TimeStepBenchmark.java ParetoTable.java runBenchmark.slurm paretoTable.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TimeStepBenchmark/TimeStepBenchmark.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TimeStepBenchmark/ParetoTable.java
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TimeStepBenchmark/runBenchmark.slurm
+wget https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TimeStepBenchmark/paretoTable.slurm
+
+sed "s|__BenchmarkDirectory__|${cwd}|" -i ParetoTable.java
+
+Jobs=""
+for iSim in *.sim
+do
+    StudyType=$(basename $iSim .sim)
+    for iCFL in 0.5 1 2 5 10 20
+    do
+        mkdir -p ${StudyType}/CFL${iCFL}
+        cp $iSim TimeStepBenchmark.java runBenchmark.slurm ${StudyType}/CFL${iCFL}/
+
+        cd "${cwd}/${StudyType}/CFL${iCFL}"
+        sed "s/__StudyType__/${StudyType}/" -i TimeStepBenchmark.java
+        sed "s/__TargetCourant__/${iCFL}/" -i TimeStepBenchmark.java
+        Jobs="${Jobs}:$(sbatch --parsable runBenchmark.slurm)"
+        cd "${cwd}"
+    done
+done
+
+# afterany, so a diverged large-CFL case does not hold back the table
+sbatch --dependency=afterany${Jobs} paretoTable.slurm
@@ -5,6 +5,7 @@ package macro;
 import java.util.*;
 import java.io.*;
 import java.nio.file.*;
+import java.security.*;
 
 import star.common.*;
 import star.base.neo.*;
@@ -71,6 +72,27 @@ public class CouetteCell extends StarMacro {
   double PrimLayerTotalThickness = 5e-4; // m
   double PrismLayerStretching = 1.5; // -
 
+  // Prism layer designer - replaces the three settings above by the fewest layers
+  // that put the first cell at targetYPlus on the rotor. The wall shear is taken
+  // from WallShearFile (a WallShearStress table exported by a previous run, e.g.
+  // ExportShearRst.java) or else from Wendt's Taylor-Couette torque correlation.
+  // The layers grow until the last one is prismTransitionRatio of the gap cell
+  // size, within maxPrismThicknessFraction of the gap.
+  boolean designPrismLayers = true;
+  String WallShearFile = "__WallShearFile__"; // "none" for the correlation
+  double targetYPlus = 1.0;
+  int minPrismLayers = 2;
+  int maxPrismLayers = 30;
+  double maxPrismStretching = 1.5;
+  double prismTransitionRatio = 0.8; // last layer / cell size in the gap
+  double maxPrismThicknessFraction = 0.25; // of the gap, per wall
+
+  // Mesh cache - the volume mesh is stored as Mesh_<hash>.ccm, keyed by a hash of
+  // the geometry and mesher settings, and imported instead of re-meshing when a
+  // later run has the same settings
+  boolean useMeshCache = true;
+  String MeshCacheDirectory = "__MeshCacheDirectory__";
+
   // Time-Stepping
   boolean IsSteady = true;
   double targetCourant = 2.0; // adjusting timestep by RPM, RotorDiameter and MeshSize
@@ -104,13 +126,20 @@ public class CouetteCell extends StarMacro {
     SessionDirectory = simulation.getSessionDir();
 
     setCalculatedProperties();
+    if (designPrismLayers) {
+      DesignPrismLayers();
+    }
     CreateGlobalParameters();
 
     CreateGeometry();
     CreatePhysics(IsSteady, TurbulenceModel);
+    String meshHash = MeshSettingsHash();
+    boolean meshCached = ImportCachedMesh(meshHash);
     CreateRegion();
 
-    AssignPartsToRegion();
+    if (!meshCached) {
+      AssignPartsToRegion();
+    }
 
     CreateAutomatedMeshOperation(MeshBaseSize);
 
@@ -131,15 +160,17 @@ public class CouetteCell extends StarMacro {
     CreateReportsAndPlots();
     CreateRotorThresholdMonitor();
     
-    CreateVerticalRefinementZone(0*1.5*RotorStartZ , StatorHeight - 0*1.5*RotorStartZ, 100 * refinementRelSize);
-
-    CreateVerticalRefinementZone(0-1.1*TubeLength , 0*1.5*RotorStartZ, 100 * refinementRelSize*0.5);
-    CreateVerticalRefinementZone(StatorHeight - 0*1.5*RotorStartZ , StatorHeight+1.1*TubeLength, 100 * refinementRelSize*0.5);
+    for (double[] zone : RefinementZones()) {
+      CreateVerticalRefinementZone(zone[0], zone[1], zone[2]);
+    }
 
     Save();
 
     SetCurvatureDeviationMeshing(curvatureControl);
-    ExecuteMesh();
+    if (!meshCached) {
+      ExecuteMesh();
+      ExportCachedMesh(meshHash);
+    }
 
     WriteConfig();
     StartFlowSimulation();
@@ -175,6 +206,8 @@ public class CouetteCell extends StarMacro {
     try {
       PrintWriter writer = new PrintWriter("Sim_" + TurbulenceModel + "_TORQUE_" + uid, "UTF-8");
       writer.println("Mesh Base Size :" + RelMeshBaseSize);
+      writer.println("Prism Layers: " + NoPrismLayers + ", stretching " + PrismLayerStretching + ", thickness "
+          + PrimLayerTotalThickness + " m");
       writer.println("Turbulence Model: " + TurbulenceModel);
       if (TurbulenceModel == "RANS-kOmega") {
         writer.println("kOmegaConsituitive: " + kOmegaConsituitive);
@@ -721,6 +754,123 @@ public class CouetteCell extends StarMacro {
     }
   }
 
+  // Sets NoPrismLayers, PrismLayerStretching and PrimLayerTotalThickness from the
+  // estimated rotor wall shear
+  private void DesignPrismLayers() {
+    Simulation simulation = getActiveSimulation();
+
+    double wallShear = ExportedWallShear();
+    String source = WallShearFile;
+    if (!(wallShear > 0)) {
+      wallShear = CorrelatedRotorShear();
+      source = "Wendt correlation";
+    }
+    double frictionVelocity = Math.sqrt(wallShear / density);
+    double firstLayer = targetYPlus * (viscosity / density) / frictionVelocity;
+    double gapCellSize = MeshBaseSize * RefinementZones().get(0)[2] / 100.0;
+    double lastLayer = prismTransitionRatio * gapCellSize;
+    double maxThickness = maxPrismThicknessFraction * d;
+
+    // Fewest layers that reach lastLayer without exceeding maxPrismStretching
+    int layers = minPrismLayers;
+    if (lastLayer > firstLayer) {
+      layers = (int) Math.ceil(1 + Math.log(lastLayer / firstLayer) / Math.log(maxPrismStretching));
+    }
+    layers = Math.max(minPrismLayers, Math.min(maxPrismLayers, layers));
+    double stretching = layers > 1 ? Math.pow(Math.max(lastLayer / firstLayer, 1.0), 1.0 / (layers - 1)) : 1.0;
+    stretching = Math.min(stretching, maxPrismStretching);
+
+    // Too thick for the gap - stretch less over the same layers
+    if (PrismStackThickness(firstLayer, stretching, layers) > maxThickness) {
+      double low = 1.0;
+      double high = stretching;
+      for (int i = 0; i < 60; i++) {
+        double mid = 0.5 * (low + high);
+        if (PrismStackThickness(firstLayer, mid, layers) > maxThickness) {
+          high = mid;
+        } else {
+          low = mid;
+        }
+      }
+      stretching = low;
+    }
+
+    NoPrismLayers = layers;
+    PrismLayerStretching = Math.max(stretching, 1.0);
+    PrimLayerTotalThickness = Math.min(PrismStackThickness(firstLayer, PrismLayerStretching, layers), maxThickness);
+
+    simulation.println(String.format(
+        "Prism layer design: wall shear %.3g Pa (%s), first layer %.3g m for y+ %.2g -> %d layers, stretching %.3f, thickness %.3g m",
+        wallShear, source, firstLayer, targetYPlus, NoPrismLayers, PrismLayerStretching, PrimLayerTotalThickness));
+  }
+
+  private double PrismStackThickness(double firstLayer, double stretching, int layers) {
+    if (stretching - 1.0 < 1e-9) {
+      return firstLayer * layers;
+    }
+    return firstLayer * (Math.pow(stretching, layers) - 1.0) / (stretching - 1.0);
+  }
+
+  // Rotor wall shear from the torque correlations of Wendt (1933),
+  // G = T / (rho nu^2 L), below Re = 400 the laminar Couette solution
+  private double CorrelatedRotorShear() {
+    double omega = RPM * 2.0 * Math.PI / 60.0;
+    double nu = viscosity / density;
+    double eta = R1 / R2;
+    double Re = omega * R1 * d / nu;
+
+    if (Re < 400) {
+      return 2.0 * viscosity * omega * R2 * R2 / (R2 * R2 - R1 * R1);
+    }
+    double G;
+    if (Re < 1e4) {
+      G = 1.45 * Math.pow(eta, 1.5) / Math.pow(1 - eta, 1.75) * Math.pow(Re, 1.5);
+    } else {
+      G = 0.23 * Math.pow(eta, 1.5) / Math.pow(1 - eta, 1.75) * Math.pow(Re, 1.7);
+    }
+    double torquePerLength = G * density * nu * nu;
+    return torquePerLength / (2.0 * Math.PI * R1 * R1);
+  }
+
+  // 95th percentile of the WallShearStress column of WallShearFile, 0 if there is none
+  private double ExportedWallShear() {
+    Simulation simulation = getActiveSimulation();
+    if (!Files.exists(Paths.get(WallShearFile))) {
+      return 0;
+    }
+
+    try {
+      List<String> lines = Files.readAllLines(Paths.get(WallShearFile));
+      String[] header = lines.get(0).replace("\"", "").split(",");
+      int column = -1;
+      for (int i = 0; i < header.length; i++) {
+        if (header[i].contains("WallShearStress") || header[i].contains("Wall Shear Stress")) {
+          column = i;
+        }
+      }
+      if (column < 0) {
+        simulation.println("Prism layer design: no WallShearStress column in " + WallShearFile);
+        return 0;
+      }
+
+      List<Double> values = new ArrayList<Double>();
+      for (int i = 1; i < lines.size(); i++) {
+        String[] cols = lines.get(i).split(",");
+        if (cols.length > column) {
+          values.add(Math.abs(Double.parseDouble(cols[column])));
+        }
+      }
+      if (values.isEmpty()) {
+        return 0;
+      }
+      Collections.sort(values);
+      return values.get((int) Math.min(values.size() - 1, Math.floor(0.95 * values.size())));
+    } catch (Exception ex) {
+      simulation.println(ex);
+      return 0;
+    }
+  }
+
   private void SetPrismLayers(int noLayers, int noThinLayers, double prismLayerStretch,
       double prismLayerTotalThickness) {
 
@@ -784,6 +934,102 @@ public class CouetteCell extends StarMacro {
     autoMeshOperation.getInputGeometryObjects().setObjects(meshOperationPart);
   }
 
+  // Bottom, top and relative size of the vertical refinement zones
+  private List<double[]> RefinementZones() {
+    List<double[]> zones = new ArrayList<double[]>();
+    zones.add(new double[] { 0*1.5*RotorStartZ , StatorHeight - 0*1.5*RotorStartZ, 100 * refinementRelSize });
+    zones.add(new double[] { 0-1.1*TubeLength , 0*1.5*RotorStartZ, 100 * refinementRelSize*0.5 });
+    zones.add(new double[] { StatorHeight - 0*1.5*RotorStartZ , StatorHeight+1.1*TubeLength, 100 * refinementRelSize*0.5 });
+    return zones;
+  }
+
+  // Everything the volume mesh depends on, one setting per line
+  private String MeshSettings() {
+    StringBuilder settings = new StringBuilder();
+    settings.append("RotorDiameter=" + RotorDiameter + "\n");
+    settings.append("RotorHeight=" + RotorHeight + "\n");
+    settings.append("StatorDiameter=" + StatorDiameter + "\n");
+    settings.append("StatorHeight=" + StatorHeight + "\n");
+    settings.append("RotorStartZ=" + RotorStartZ + "\n");
+    settings.append("InletHoleDiameter=" + InletHoleDiameter + "\n");
+    settings.append("InletHoleRadialPosition=" + InletHoleRadialPosition + "\n");
+    settings.append("TubeLength=" + TubeLength + "\n");
+    settings.append("ShaftDiameter=" + ShaftDiameter + "\n");
+    settings.append("MeshBaseSize=" + MeshBaseSize + "\n");
+    settings.append("NumPrismLayers=" + NoPrismLayers + "\n");
+    settings.append("NumThinLayers=" + (thinMesher ? NoThinLayers : 0) + "\n");
+    settings.append("PrismLayerStretching=" + PrismLayerStretching + "\n");
+    settings.append("PrismThickness=" + PrimLayerTotalThickness + "\n");
+    settings.append("ThinMesher=" + thinMesher + "\n");
+    settings.append("CurvatureControl=" + curvatureControl + "\n");
+    for (double[] zone : RefinementZones()) {
+      settings.append("RefinementZone=" + Arrays.toString(zone) + "\n");
+    }
+    return settings.toString();
+  }
+
+  private String MeshSettingsHash() {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(MeshSettings().getBytes("UTF-8"));
+      StringBuilder hash = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        hash.append(String.format("%02x", digest[i]));
+      }
+      return hash.toString();
+    } catch (Exception ex) {
+      getActiveSimulation().println(ex);
+      return "";
+    }
+  }
+
+  // Imports Mesh_<hash>.ccm as the Fluid region if it is in the cache
+  private boolean ImportCachedMesh(String hash) {
+    Simulation simulation = getActiveSimulation();
+    Path cachedMesh = Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".ccm");
+    if (!useMeshCache || hash.isEmpty() || !Files.exists(cachedMesh)) {
+      simulation.println("Mesh cache: no mesh for " + hash + ", meshing");
+      return false;
+    }
+
+    simulation.println("Mesh cache: importing " + cachedMesh);
+    simulation.getImportManager().importMeshFiles(new StringVector(new String[] { cachedMesh.toString() }),
+        NeoProperty.fromString("{\'FileOptions\': [{\'Sequence\': 42}]}"));
+
+    Region fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+    fluidRegion.setPhysicsContinuum(simulation.getContinuumManager().getContinuum("Physics 1"));
+    return true;
+  }
+
+  // Stores the volume mesh of the Fluid region with the settings it was made
+  // from. Written under a temporary name and moved, so a job starting meanwhile
+  // never imports a partial file.
+  private void ExportCachedMesh(String hash) {
+    Simulation simulation = getActiveSimulation();
+    if (!useMeshCache || hash.isEmpty()) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(Paths.get(MeshCacheDirectory));
+      Path cachedMesh = Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".ccm");
+      Path partial = Paths.get(MeshCacheDirectory, "Mesh_" + hash + "_" + uid + ".ccm");
+
+      Region fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+      ImportManager importManager = simulation.getImportManager();
+      importManager.setFormatType(SolutionExportFormat.Type.CCM);
+      importManager.export(partial.toString(), new NeoObjectVector(new Object[] { fluidRegion }),
+          new NeoObjectVector(fluidRegion.getBoundaryManager().getBoundaries().toArray()),
+          new NeoObjectVector(new Object[] {}), new NeoObjectVector(new Object[] {}),
+          new NeoObjectVector(new Object[] {}), new NeoObjectVector(new Object[] {}), false, false);
+
+      Files.move(partial, cachedMesh, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      Files.write(Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".txt"), MeshSettings().getBytes("UTF-8"));
+      simulation.println("Mesh cache: stored " + cachedMesh);
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
   private void ExecuteMesh() {
 
     Simulation simulation = getActiveSimulation();
@@ -899,16 +1145,22 @@ public class CouetteCell extends StarMacro {
   private void CreateRegion() {
     Simulation simulation = getActiveSimulation();
 
-    Region fluidRegion = simulation.getRegionManager().createEmptyRegion();
-    fluidRegion.setPresentationName("Fluid");
-
-    Boundary statorBoundary = fluidRegion.getBoundaryManager().getBoundary("Default");
+    // An imported cached mesh brings the region and its boundaries
+    Region fluidRegion;
+    if (simulation.getRegionManager().has("Fluid")) {
+      fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+    } else {
+      fluidRegion = simulation.getRegionManager().createEmptyRegion();
+      fluidRegion.setPresentationName("Fluid");
+    }
 
-    statorBoundary.setPresentationName("Stator");
+    if (!fluidRegion.getBoundaryManager().has("Stator")) {
+      Boundary statorBoundary = fluidRegion.getBoundaryManager().getBoundary("Default");
 
-    Boundary rotorBoundary = fluidRegion.getBoundaryManager().createEmptyBoundary();
+      statorBoundary.setPresentationName("Stator");
+    }
 
-    rotorBoundary.setPresentationName("Rotor");
+    Boundary rotorBoundary = GetOrCreateBoundary("Rotor", fluidRegion);
 
     if(flowRate > 1e-9){
       Boundary OutletA = CreatePressureOutlet("OutletA", fluidRegion, simulation);
@@ -924,7 +1176,10 @@ public class CouetteCell extends StarMacro {
     
   }
 
-  private Boundary CreateWall(String name, Region region, Simulation simulation) {
+  private Boundary GetOrCreateBoundary(String name, Region region) {
+    if (region.getBoundaryManager().has(name)) {
+      return region.getBoundaryManager().getBoundary(name);
+    }
     Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
 
     boundary.setPresentationName(name);
@@ -932,10 +1187,14 @@ public class CouetteCell extends StarMacro {
     return boundary;
   }
 
-  private Boundary CreateOutlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
+  private Boundary CreateWall(String name, Region region, Simulation simulation) {
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
-    boundary.setPresentationName(name);
+    return boundary;
+  }
+
+  private Boundary CreateOutlet(String name, Region region, Simulation simulation) {
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
 
     OutletBoundary outletBoundary = ((OutletBoundary) simulation.get(ConditionTypeManager.class)
@@ -949,9 +1208,7 @@ public class CouetteCell extends StarMacro {
   }
 
   private Boundary CreatePressureOutlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
 
     PressureBoundary outletBoundary = ((PressureBoundary) simulation.get(ConditionTypeManager.class)
@@ -965,8 +1222,7 @@ public class CouetteCell extends StarMacro {
   }
 
   private Boundary CreateInlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
     InletBoundary inletBoundary = ((InletBoundary) simulation.get(ConditionTypeManager.class).get(InletBoundary.class));
 
     boundary.setBoundaryType(inletBoundary);
@@ -982,8 +1238,7 @@ public class CouetteCell extends StarMacro {
 
   private Boundary CreateMassFlowInlet(String name, double MassFlowKgS, Region region, Simulation simulation) {
 
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
     simulation.get(GlobalParameterManager.class).createGlobalParameter(ScalarGlobalParameter.class, "MassFlow");
     ScalarGlobalParameter scalarGlobalParameter = ((ScalarGlobalParameter) simulation.get(GlobalParameterManager.class).getObject("MassFlow"));
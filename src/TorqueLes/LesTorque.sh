@@ -3,6 +3,8 @@ RPM=__iRPM__
 MeshSize=5
 FlowRateMlMin=16.6
 RotorDiameter=80e-3
+WallShearFile=none # WallShearStress table of a previous run, or the Taylor-Couette correlation
+MeshCacheDirectory=$HOME/MeshCache # shared between runs, keyed by geometry and mesher settings
 
 rm *.java
 mkdir -p Results
@@ -14,4 +16,6 @@ cp RecordReynoldsStresses.java Results/
 sed "s/__RPM__/$RPM/" -i CouetteCell.java
 sed "s/__MeshSize__/$MeshSize/" -i CouetteCell.java
 sed "s/__FlowRateMlMin__/$FlowRateMlMin/" -i CouetteCell.java
-sed "s/__RotorDiameter__/$RotorDiameter/" -i CouetteCell.java
\ No newline at end of file
+sed "s/__RotorDiameter__/$RotorDiameter/" -i CouetteCell.java
+sed "s|__MeshCacheDirectory__|$MeshCacheDirectory|" -i CouetteCell.java
+sed "s|__WallShearFile__|$WallShearFile|" -i CouetteCell.java
\ No newline at end of file
@@ -69,6 +69,9 @@ public class LesTorque extends StarMacro {
   double PrimLayerTotalThickness = 5e-4; // m
   double PrismLayerStretching = 1.5; // -
 
+  // Cells, tasks and seconds per step of every run, for ResourcePredictor.java
+  String ResourceHistoryFile = "__ResourceHistoryFile__";
+
   // Time-Stepping
   boolean IsSteady = true;
   double targetCourant = 2.0; // adjusting timestep by RPM, RotorDiameter and MeshSize
@@ -94,6 +97,76 @@ public class LesTorque extends StarMacro {
   int iterationUpdateFrequency = 5;
   boolean continuityInitialization = true;
 
+  // Wall-time control of the LES run - time step and inner iterations are
+  // retuned every controlIntervalSteps from the solver timing and residuals
+  int controlIntervalSteps = 50;
+  int innerIterations = 5;
+  int minInnerIterations = 3;
+  int maxInnerIterations = 10;
+  double minTimeStepFactor = 0.5; // time step bounds relative to TimeStep (Courant target)
+  double maxTimeStepFactor = 2.0;
+  double targetResidualDrop = 1.5; // decades of continuity reduction within a time step
+  double residualDropMargin = 1.0; // drops above target + margin waste inner iterations
+  double timeStepIncrease = 1.1;
+  double timeStepDecrease = 0.8;
+  int timeStepCooldownIntervals = 10; // intervals without increase after a revert
+
+  // Per time step inner iterations: an inner-iteration stopping criterion ends
+  // each time step once continuity is targetResidualDrop decades below its
+  // level at the start of the steps (taken as the 90th percentile of the last
+  // interval). innerIterations, kept within [minInnerIterations,
+  // maxInnerIterations] by the interval controller on the measured drop, is then
+  // the per step upper bound. Iterations saved against running every step at
+  // the configured innerIterations are appended to InnerIterations.csv.
+  boolean adaptiveInnerIterations = true;
+  String InnerCriterionName = "Inner Continuity Drop";
+  long savedIterations = 0;
+
+  // Staged run: RANS until the torque or residual plateaus, LES wash-out until
+  // the Rotor Moment is stationary, then TotalPhysialTime of statistics.
+  // The stage is kept in the RunStage global parameter of the saved .sim, so a
+  // resubmitted job continues the stage it was killed in.
+  static final int STAGE_RANS = 0;
+  static final int STAGE_WASHOUT = 1;
+  static final int STAGE_STATISTICS = 2;
+  static final int STAGE_DONE = 3;
+  int ransCheckSteps = 500; // iterations between RANS exit checks, at most InitialRansSteps in total
+  double ransResidualTarget = 1e-4; // continuity
+  double ransTorqueTolerance = 1e-3; // relative Rotor Moment change between checks
+  double minWashoutRevolutions = 3;
+  double maxWashoutRevolutions = 40;
+  int samplesPerRevolution = 20;
+
+  // End of the start-up transient by MSER-5 on the Rotor Moment: the wash-out
+  // ends once the truncation point lies in the first half of its samples. The
+  // statistics window is checked the same way every statisticsCheckRevolutions;
+  // if more than statisticsResetFraction of it is transient, the mean monitors
+  // are reset and the window restarted, at most maxStatisticsResets times.
+  int mserBatchSize = 5;
+  double statisticsCheckRevolutions = 5;
+  double statisticsResetFraction = 0.25;
+  int maxStatisticsResets = 1;
+  List<Double> statisticsTorque = new ArrayList<Double>();
+  double nextStatisticsSample = 0;
+  double nextStatisticsCheck = 0;
+  int statisticsResets = 0;
+
+  // Divergence watchdog - checked after every LES control interval. A diverged
+  // run deletes the autosaves written since the last good check and leaves a
+  // RESTART file; the slurm script then restarts on the last good .sim with the
+  // time step cut. After watchdogMaxFailures rollbacks an ABORT file is written.
+  double watchdogResidualGrowth = 100; // continuity above this times its running minimum
+  int watchdogGrowthIntervals = 2; // consecutive intervals of growth before acting
+  double watchdogMaxCourant = 20; // maximum convective Courant number
+  double watchdogTimeStepCut = 0.5;
+  int watchdogMaxFailures = 3;
+  String WatchdogFile = "Watchdog.properties";
+  long sessionStart = System.currentTimeMillis();
+  long lastGoodTime = sessionStart;
+  double minimumResidual = Double.MAX_VALUE;
+  int growthIntervals = 0;
+  boolean rolledBack = false;
+
   // calclated
   double MeshBaseSize, R1, R2, d; // m
 
@@ -102,6 +175,7 @@ public class LesTorque extends StarMacro {
     SessionDirectory = simulation.getSessionDir();
 
     setCalculatedProperties();
+    TimeStep *= Double.parseDouble(ReadWatchdog().getProperty("TimeStepFactor", "1"));
 
     StartTorqueLesSimulation();
 
@@ -176,22 +250,192 @@ public class LesTorque extends StarMacro {
   }
 
   private void StartTorqueLesSimulation() {
-    SwapToLes();
-    SimName = String.format("Sim_%s_%s_%1.0fRPM_TORQUE_%s.sim", TurbulenceModel, getRotorDiameterString(), RPM, uid);
-    setLesCw(0.325);
-    setTimeStep(TimeStep);
-    SetTransientStoppingCriteria(TotalPhysialTime);
-    CreateTimingPlots();
+    Simulation simulation = getActiveSimulation();
 
-    SetAutoSave();
-    // AddSurfaceSideViewScene("Wall Shear Stress", "WallShearStress", 0, 150);
-    new StarScript(getActiveRootObject(), new File(resolvePath("RecordReynoldsStresses.java"))).play();
-    Save();
-    RunSimulation();
+    int stage = (int) Math.round(getGlobalValue("RunStage", STAGE_RANS));
+    if (stage > STAGE_RANS) {
+      IsSteady = false;
+      TurbulenceModel = "LES";
+      // The reloaded .sim keeps the time step it was saved with; a restart after a
+      // watchdog rollback must run with the cut one
+      setTimeStep(TimeStep);
+    }
+    simulation.println("StartTorqueLesSimulation: starting in stage " + stage);
+    SimName = String.format("Sim_LES_%s_%1.0fRPM_TORQUE_%s.sim", getRotorDiameterString(), RPM, uid);
+
+    if (stage == STAGE_RANS) {
+      RunRansStage();
+
+      SwapToLes();
+      setLesCw(0.325);
+      setTimeStep(TimeStep);
+      CreateTimingPlots();
+      SetAutoSave();
+      SaveCheckpoint(STAGE_WASHOUT);
+    }
+
+    if (stage <= STAGE_WASHOUT) {
+      RunWashoutStage();
+      if (rolledBack) {
+        return;
+      }
+
+      // AddSurfaceSideViewScene("Wall Shear Stress", "WallShearStress", 0, 150);
+      new StarScript(getActiveRootObject(), new File(resolvePath("RecordReynoldsStresses.java"))).play();
+      setGlobalValue("StatisticsStartTime", simulation.getSolution().getPhysicalTime());
+      SaveCheckpoint(STAGE_STATISTICS);
+    }
+
+    if (stage <= STAGE_STATISTICS) {
+      double endTime = getGlobalValue("StatisticsStartTime", simulation.getSolution().getPhysicalTime())
+          + TotalPhysialTime;
+      SetTransientStoppingCriteria(endTime);
+      RunWallTimeControlled(endTime);
+      if (rolledBack) {
+        return;
+      }
+      try {
+        WriteResourceUsage("LesTorque",
+            mean(readMonitorTail("Solver Elapsed Time per Time Step Monitor", controlIntervalSteps)));
+      } catch (IOException ex) {
+        simulation.println(ex);
+      }
+      SaveCheckpoint(STAGE_DONE);
+      Save();
+    }
 
     new StarScript(getActiveRootObject(), new File(resolvePath("RecordMeanShearStress.java"))).play();
   }
 
+  // Appends the cell count, tasks and measured seconds per step to
+  // ResourceHistoryFile - the calibration data of ResourcePredictor.java
+  private void WriteResourceUsage(String study, double secondsPerStep) {
+    Simulation simulation = getActiveSimulation();
+
+    try {
+      ElementCountReport cellCount;
+      if (simulation.getReportManager().has("Cell Count")) {
+        cellCount = (ElementCountReport) simulation.getReportManager().getReport("Cell Count");
+      } else {
+        cellCount = simulation.getReportManager().createReport(ElementCountReport.class);
+        cellCount.setPresentationName("Cell Count");
+        cellCount.getParts().setQuery(null);
+        cellCount.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+      }
+
+      boolean newFile = !Files.exists(Paths.get(ResourceHistoryFile));
+      PrintWriter writer = new PrintWriter(new FileWriter(ResourceHistoryFile, true));
+      if (newFile) {
+        writer.println("Study,TurbulenceModel,Partition,Nodes,Tasks,Cells,RotorDiameter,RelMeshBaseSize,PrismLayers,SecondsPerStep");
+      }
+      writer.println(String.format("%s,%s,%s,%s,%s,%.0f,%s,%s,%d,%.6g", study, TurbulenceModel,
+          System.getenv().getOrDefault("SLURM_JOB_PARTITION", "unknown"),
+          System.getenv().getOrDefault("SLURM_NNODES", "0"), System.getenv().getOrDefault("SLURM_NPROCS", "0"),
+          cellCount.getReportMonitorValue(), RotorDiameter, RelMeshBaseSize, NoPrismLayers, secondsPerStep));
+      writer.close();
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  // Steady iterations until the Rotor Moment stops changing or the continuity
+  // residual is below target, at most InitialRansSteps
+  private void RunRansStage() {
+    Simulation simulation = getActiveSimulation();
+    Report torque = simulation.getReportManager().getReport("Rotor Moment");
+
+    double previousTorque = torque.getReportMonitorValue();
+    for (int steps = 0; steps < InitialRansSteps; steps += ransCheckSteps) {
+      RunSteps(ransCheckSteps);
+      double currentTorque = torque.getReportMonitorValue();
+      double change = Math.abs(currentTorque - previousTorque) / Math.max(Math.abs(currentTorque), 1e-12);
+      previousTorque = currentTorque;
+
+      double residual = Double.MAX_VALUE;
+      try {
+        residual = mean(readMonitorTail("Continuity", 1));
+      } catch (Exception ex) {
+        simulation.println(ex);
+      }
+      simulation.println(String.format("RANS stage: %d iterations, torque change %.3e, continuity %.3e",
+          steps + ransCheckSteps, change, residual));
+      if (change < ransTorqueTolerance || residual < ransResidualTarget) {
+        return;
+      }
+    }
+  }
+
+  // LES wash-out one rotor revolution at a time; done once MSER-5 finds the end
+  // of the transient in the first half of the Rotor Moment samples
+  private void RunWashoutStage() {
+    Simulation simulation = getActiveSimulation();
+    Report torque = simulation.getReportManager().getReport("Rotor Moment");
+
+    double revolutionTime = 60.0 / RPM;
+    int stepsPerSample = Math.max(1, (int) Math.ceil(revolutionTime / TimeStep / samplesPerRevolution));
+    double startTime = getGlobalValue("WashoutStartTime", simulation.getSolution().getPhysicalTime());
+    SetTransientStoppingCriteria(startTime + maxWashoutRevolutions * revolutionTime);
+
+    List<Double> samples = new ArrayList<Double>();
+    List<Double> sampleTimes = new ArrayList<Double>();
+    while (simulation.getSolution().getPhysicalTime() < startTime + maxWashoutRevolutions * revolutionTime) {
+      for (int i = 0; i < samplesPerRevolution; i++) {
+        RunSteps(stepsPerSample);
+        samples.add(torque.getReportMonitorValue());
+        sampleTimes.add(simulation.getSolution().getPhysicalTime());
+      }
+      double revolutions = (simulation.getSolution().getPhysicalTime() - startTime) / revolutionTime;
+      int truncation = mserTruncation(samples, mserBatchSize);
+
+      simulation.println(String.format("Wash-out stage: %.1f revolutions, MSER truncation at %d of %d samples (t = %.4f s)",
+          revolutions, truncation, samples.size(), sampleTimes.get(Math.min(truncation, samples.size() - 1))));
+      String divergence = CheckDivergence();
+      if (divergence != null) {
+        RollBack(divergence);
+        return;
+      }
+      if (revolutions >= minWashoutRevolutions && truncation <= samples.size() / 2) {
+        return;
+      }
+    }
+  }
+
+  // Records the next stage and saves into the session directory, where the
+  // slurm scripts pick the newest .sim from
+  private void SaveCheckpoint(int nextStage) {
+    Simulation simulation = getActiveSimulation();
+
+    setGlobalValue("RunStage", nextStage);
+    if (nextStage == STAGE_WASHOUT) {
+      setGlobalValue("WashoutStartTime", simulation.getSolution().getPhysicalTime());
+    }
+    try {
+      simulation.saveState(SessionDirectory + "/" + SimName.replace(".sim", "_Stage" + nextStage + ".sim"));
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  private double getGlobalValue(String name, double defaultValue) {
+    Simulation simulation = getActiveSimulation();
+    GlobalParameterManager manager = simulation.get(GlobalParameterManager.class);
+    if (!manager.has(name)) {
+      CreateGlobalDimensionlessParameter(name, "" + defaultValue);
+      return defaultValue;
+    }
+    return ((ScalarGlobalParameter) manager.getObject(name)).getQuantity().getSIValue();
+  }
+
+  private void setGlobalValue(String name, double value) {
+    Simulation simulation = getActiveSimulation();
+    GlobalParameterManager manager = simulation.get(GlobalParameterManager.class);
+    if (!manager.has(name)) {
+      CreateGlobalDimensionlessParameter(name, "" + value);
+      return;
+    }
+    ((ScalarGlobalParameter) manager.getObject(name)).getQuantity().setValue(value);
+  }
+
   private String getRotorDiameterString() {
     Simulation simulation = getActiveSimulation();
     ScalarGlobalParameter sParameter = (ScalarGlobalParameter) simulation.get(GlobalParameterManager.class)
@@ -308,6 +552,403 @@ public class LesTorque extends StarMacro {
     simulation.getSimulationIterator().run();
   }
 
+  // Runs to endTime in intervals of controlIntervalSteps. After each interval the
+  // continuity drop per time step decides whether inner iterations or the time
+  // step give more simulated seconds per wall-clock hour. Every decision is
+  // appended to TimeStepControl.csv.
+  private void RunWallTimeControlled(double endTime) {
+    Simulation simulation = getActiveSimulation();
+
+    double timeStep = TimeStep;
+    double previousTimeStep = timeStep;
+    double previousThroughput = 0;
+    boolean increasedTimeStep = false;
+    int cooldown = 0;
+
+    final int referenceInnerIterations = innerIterations;
+    setTimeStep(timeStep);
+    setInnerIterationCount(innerIterations);
+
+    try {
+      PrintWriter log = new PrintWriter(new FileWriter(SessionDirectory + "/TimeStepControl.csv", true));
+      log.println(
+          "PhysicalTime,TimeStep,InnerIterations,ElapsedPerStep,WallPerStep,SimulatedSecondsPerHour,ResidualDrop,Decision");
+      PrintWriter innerLog = new PrintWriter(new FileWriter(SessionDirectory + "/InnerIterations.csv", true));
+      innerLog.println("PhysicalTime,Steps,Iterations,MaxInnerIterations,ContinuityLimit,SavedIterations,TotalSaved");
+
+      while (simulation.getSolution().getPhysicalTime() < endTime) {
+        double startTime = simulation.getSolution().getPhysicalTime();
+        long wallStart = System.currentTimeMillis();
+        int iterationStart = simulation.getSimulationIterator().getCurrentIteration();
+        RunSteps(controlIntervalSteps);
+        double wallPerStep = (System.currentTimeMillis() - wallStart) / 1000.0 / controlIntervalSteps;
+        double time = simulation.getSolution().getPhysicalTime();
+        if (time <= startTime) {
+          // Stopped by something else, e.g. the ABORT file
+          break;
+        }
+
+        double elapsedPerStep = mean(readMonitorTail("Solver Elapsed Time per Time Step Monitor",
+            controlIntervalSteps));
+        double throughput = timeStep / elapsedPerStep * 3600.0;
+        int iterations = simulation.getSimulationIterator().getCurrentIteration() - iterationStart;
+        List<double[]> continuity = readMonitorTail("Continuity", Math.max(iterations, controlIntervalSteps));
+        double residualDrop;
+        if (adaptiveInnerIterations) {
+          residualDrop = percentileDrop(continuity);
+          double limit = percentile(continuity, 0.9) * Math.pow(10, -targetResidualDrop);
+          setInnerContinuityLimit(limit);
+
+          long saved = (long) referenceInnerIterations * controlIntervalSteps - iterations;
+          savedIterations += saved;
+          innerLog.println(String.format("%.6e,%d,%d,%d,%.4e,%d,%d", time, controlIntervalSteps, iterations,
+              innerIterations, limit, saved, savedIterations));
+          innerLog.flush();
+        } else {
+          residualDrop = meanResidualDrop(continuity, innerIterations);
+        }
+
+        String divergence = CheckDivergence();
+        if (divergence != null) {
+          log.println(String.format("%.6e,%.6e,%d,%.4e,%.4e,%.4e,%.3f,%s", time, timeStep, innerIterations,
+              elapsedPerStep, wallPerStep, throughput, residualDrop, "rollback - " + divergence));
+          RollBack(divergence);
+          break;
+        }
+        endTime = CheckStatisticsTransient(endTime, startTime, timeStep);
+
+        String decision;
+        if (residualDrop < targetResidualDrop) {
+          if (innerIterations < maxInnerIterations) {
+            innerIterations++;
+            decision = "more inner iterations";
+          } else if (timeStep > minTimeStepFactor * TimeStep) {
+            timeStep = Math.max(minTimeStepFactor * TimeStep, timeStep * timeStepDecrease);
+            decision = "smaller time step";
+          } else {
+            decision = "hold - at lower bounds";
+          }
+        } else if (increasedTimeStep && throughput < previousThroughput) {
+          timeStep = previousTimeStep;
+          cooldown = timeStepCooldownIntervals;
+          decision = "revert time step";
+        } else if (residualDrop > targetResidualDrop + residualDropMargin && innerIterations > minInnerIterations) {
+          innerIterations--;
+          decision = "fewer inner iterations";
+        } else if (cooldown == 0 && timeStep < maxTimeStepFactor * TimeStep) {
+          previousTimeStep = timeStep;
+          timeStep = Math.min(maxTimeStepFactor * TimeStep, timeStep * timeStepIncrease);
+          decision = "larger time step";
+        } else {
+          decision = "hold";
+        }
+        increasedTimeStep = decision.equals("larger time step");
+        cooldown = Math.max(0, cooldown - 1);
+        previousThroughput = throughput;
+
+        log.println(String.format("%.6e,%.6e,%d,%.4e,%.4e,%.4e,%.3f,%s", time, timeStep, innerIterations,
+            elapsedPerStep, wallPerStep, throughput, residualDrop, decision));
+        log.flush();
+
+        setTimeStep(timeStep);
+        setInnerIterationCount(innerIterations);
+      }
+      log.close();
+      innerLog.close();
+      simulation.println("RunWallTimeControlled: " + savedIterations + " inner iterations saved by the per step criterion");
+    } catch (Exception ex) {
+      simulation.println(ex);
+      RunSimulation();
+    }
+  }
+
+  // Creates the inner-iteration criterion on first use, then sets its limit
+  private void setInnerContinuityLimit(double limit) {
+    Simulation simulation = getActiveSimulation();
+
+    MonitorIterationStoppingCriterion criterion;
+    if (simulation.getSolverStoppingCriterionManager().has(InnerCriterionName)) {
+      criterion = (MonitorIterationStoppingCriterion) simulation.getSolverStoppingCriterionManager()
+          .getSolverStoppingCriterion(InnerCriterionName);
+    } else {
+      ResidualMonitor residualMonitor = ((ResidualMonitor) simulation.getMonitorManager().getMonitor("Continuity"));
+      criterion = residualMonitor.createIterationStoppingCriterion();
+      criterion.setPresentationName(InnerCriterionName);
+      criterion.setInnerIterationCriterion(true);
+      criterion.getLogicalOption().setSelected(SolverStoppingCriterionLogicalOption.Type.OR);
+      ((MonitorIterationStoppingCriterionOption) criterion.getCriterionOption())
+          .setSelected(MonitorIterationStoppingCriterionOption.Type.MINIMUM);
+    }
+    MonitorIterationStoppingCriterionMinLimitType minLimitType = ((MonitorIterationStoppingCriterionMinLimitType) criterion
+        .getCriterionType());
+    minLimitType.getLimit().setValue(limit);
+  }
+
+  private double percentile(List<double[]> rows, double fraction) {
+    if (rows.isEmpty()) {
+      return 0.0;
+    }
+    double[] values = new double[rows.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = rows.get(i)[1];
+    }
+    Arrays.sort(values);
+    return values[(int) Math.min(values.length - 1, Math.floor(fraction * values.length))];
+  }
+
+  // Decades between the typical start-of-step and end-of-step continuity
+  private double percentileDrop(List<double[]> rows) {
+    double high = percentile(rows, 0.9);
+    double low = percentile(rows, 0.1);
+    return high > 0 && low > 0 ? Math.log10(high / low) : 0.0;
+  }
+
+  // Samples the Rotor Moment during the statistics stage at samplesPerRevolution,
+  // as the wash-out stage does, picking the samples out of the per-step monitor
+  // history of the control interval just run (constant time step). If MSER-5
+  // puts the end of the transient inside the statistics window, the mean
+  // monitors are reset and a full window is run from now. Returns the (possibly
+  // moved) end time.
+  private double CheckStatisticsTransient(double endTime, double startTime, double timeStep) throws IOException {
+    Simulation simulation = getActiveSimulation();
+
+    double time = simulation.getSolution().getPhysicalTime();
+    double sampleInterval = 60.0 / RPM / samplesPerRevolution;
+    if (nextStatisticsSample == 0) {
+      nextStatisticsSample = startTime + sampleInterval;
+    }
+    int steps = (int) Math.round((time - startTime) / timeStep);
+    List<double[]> torque = readMonitorTail("Rotor Moment Monitor", steps);
+    while (nextStatisticsSample <= time + 0.5 * timeStep && !torque.isEmpty()) {
+      int row = (int) Math.round((nextStatisticsSample - startTime) / timeStep) - 1 - (steps - torque.size());
+      statisticsTorque.add(torque.get(Math.max(0, Math.min(torque.size() - 1, row)))[1]);
+      nextStatisticsSample += sampleInterval;
+    }
+
+    if (nextStatisticsCheck == 0) {
+      nextStatisticsCheck = time + statisticsCheckRevolutions * 60.0 / RPM;
+    }
+    if (time < nextStatisticsCheck || statisticsResets >= maxStatisticsResets) {
+      return endTime;
+    }
+    // Too few batches for MSER to place a truncation point - keep sampling
+    if (statisticsTorque.size() / mserBatchSize < 3) {
+      return endTime;
+    }
+    nextStatisticsCheck = time + statisticsCheckRevolutions * 60.0 / RPM;
+
+    int truncation = mserTruncation(statisticsTorque, mserBatchSize);
+    simulation.println(String.format("Statistics stage: MSER truncation at %d of %d samples", truncation,
+        statisticsTorque.size()));
+    if (truncation <= statisticsResetFraction * statisticsTorque.size()) {
+      return endTime;
+    }
+
+    ResetMeanMonitors();
+    statisticsResets++;
+    statisticsTorque.clear();
+    nextStatisticsSample = time + sampleInterval;
+    setGlobalValue("StatisticsStartTime", time);
+    SetTransientStoppingCriteria(time + TotalPhysialTime);
+    simulation.println(String.format("Statistics stage: transient in the window, mean monitors reset at t = %.4f s",
+        time));
+    return time + TotalPhysialTime;
+  }
+
+  private void ResetMeanMonitors() {
+    Simulation simulation = getActiveSimulation();
+    for (Monitor monitor : simulation.getMonitorManager().getObjects()) {
+      if (monitor instanceof FieldMeanMonitor) {
+        ((FieldMeanMonitor) monitor).reset();
+      }
+    }
+  }
+
+  // MSER-5: the number of leading samples whose removal minimises the squared
+  // standard error of the remaining batch means. Only truncations that leave at
+  // least two batches are considered.
+  static int mserTruncation(List<Double> samples, int batchSize) {
+    int batches = samples.size() / batchSize;
+    if (batches < 3) {
+      return samples.size();
+    }
+    double[] means = new double[batches];
+    for (int b = 0; b < batches; b++) {
+      for (int i = 0; i < batchSize; i++) {
+        means[b] += samples.get(b * batchSize + i) / batchSize;
+      }
+    }
+
+    int best = 0;
+    double bestStatistic = Double.MAX_VALUE;
+    for (int d = 0; d <= batches - 2; d++) {
+      int n = batches - d;
+      double mean = 0;
+      for (int b = d; b < batches; b++) {
+        mean += means[b] / n;
+      }
+      double squares = 0;
+      for (int b = d; b < batches; b++) {
+        squares += (means[b] - mean) * (means[b] - mean);
+      }
+      double statistic = squares / ((double) n * n);
+      if (statistic < bestStatistic) {
+        bestStatistic = statistic;
+        best = d;
+      }
+    }
+    return best * batchSize;
+  }
+
+  // Returns why the run looks diverged, or null when it does not
+  private String CheckDivergence() {
+    Simulation simulation = getActiveSimulation();
+
+    double torque = simulation.getReportManager().getReport("Rotor Moment").getReportMonitorValue();
+    double courant = MaxCourantReport().getReportMonitorValue();
+    double residual;
+    try {
+      residual = mean(readMonitorTail("Continuity", 1));
+    } catch (Exception ex) {
+      simulation.println(ex);
+      return null;
+    }
+
+    if (Double.isNaN(torque) || Double.isInfinite(torque) || Double.isNaN(residual) || Double.isInfinite(residual)) {
+      return "NaN in Rotor Moment or Continuity";
+    }
+    if (courant > watchdogMaxCourant) {
+      return String.format("Courant number %.1f", courant);
+    }
+    minimumResidual = Math.min(minimumResidual, residual);
+    growthIntervals = residual > watchdogResidualGrowth * minimumResidual ? growthIntervals + 1 : 0;
+    if (growthIntervals >= watchdogGrowthIntervals) {
+      return String.format("continuity %.2e is %.0f times its minimum", residual, residual / minimumResidual);
+    }
+
+    lastGoodTime = System.currentTimeMillis();
+    return null;
+  }
+
+  private void RollBack(String reason) {
+    Simulation simulation = getActiveSimulation();
+    rolledBack = true;
+
+    Properties watchdog = ReadWatchdog();
+    int failures = Integer.parseInt(watchdog.getProperty("Failures", "0")) + 1;
+    double factor = Double.parseDouble(watchdog.getProperty("TimeStepFactor", "1")) * watchdogTimeStepCut;
+    watchdog.setProperty("Failures", "" + failures);
+    watchdog.setProperty("TimeStepFactor", "" + factor);
+    watchdog.setProperty("LastReason", reason);
+    watchdog.setProperty("LastPhysicalTime", "" + simulation.getSolution().getPhysicalTime());
+
+    try {
+      // Autosaves from after the last good check would be picked up on restart
+      DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(SessionDirectory), "*_At_*.sim");
+      for (Path path : stream) {
+        if (Files.getLastModifiedTime(path).toMillis() > lastGoodTime) {
+          simulation.println("Watchdog: removing " + path);
+          Files.delete(path);
+        }
+      }
+      stream.close();
+
+      Writer writer = Files.newBufferedWriter(Paths.get(SessionDirectory, WatchdogFile));
+      watchdog.store(writer, "Divergence watchdog, read by LesTorque on restart");
+      writer.close();
+
+      String marker = failures > watchdogMaxFailures ? "ABORT" : "RESTART";
+      Files.write(Paths.get(SessionDirectory, marker), reason.getBytes());
+      simulation.println(String.format("Watchdog: %s (failure %d), time step factor %.3f, %s", reason, failures, factor,
+          marker));
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  private Properties ReadWatchdog() {
+    Properties watchdog = new Properties();
+    Path path = Paths.get(SessionDirectory, WatchdogFile);
+    if (Files.exists(path)) {
+      try {
+        Reader reader = Files.newBufferedReader(path);
+        watchdog.load(reader);
+        reader.close();
+      } catch (Exception ex) {
+        getActiveSimulation().println(ex);
+      }
+    }
+    return watchdog;
+  }
+
+  private Report MaxCourantReport() {
+    Simulation simulation = getActiveSimulation();
+    if (simulation.getReportManager().has("Maximum Convective Courant Number")) {
+      return simulation.getReportManager().getReport("Maximum Convective Courant Number");
+    }
+    MaxReport maxReport = simulation.getReportManager().createReport(MaxReport.class);
+    maxReport.setPresentationName("Maximum Convective Courant Number");
+    maxReport.setFieldFunction(simulation.getFieldFunctionManager().getFunction("ConvectiveCourantNumber"));
+    maxReport.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+    return maxReport;
+  }
+
+  // Last rows of an exported monitor as {x, y} pairs
+  private List<double[]> readMonitorTail(String monitorName, int rows) throws IOException {
+    Simulation simulation = getActiveSimulation();
+
+    Files.createDirectories(Paths.get(SessionDirectory + "/monitors"));
+    String path = SessionDirectory + "/monitors/" + monitorName.replace(" ", "") + ".csv";
+    simulation.getMonitorManager().getMonitor(monitorName).export(path);
+
+    ArrayDeque<double[]> tail = new ArrayDeque<double[]>();
+    BufferedReader reader = Files.newBufferedReader(Paths.get(path));
+    String line = reader.readLine(); // header
+    while ((line = reader.readLine()) != null) {
+      String[] cols = line.replace("\"", "").split(",");
+      if (cols.length < 2) {
+        continue;
+      }
+      tail.addLast(new double[] { Double.parseDouble(cols[0]), Double.parseDouble(cols[1]) });
+      if (tail.size() > rows) {
+        tail.removeFirst();
+      }
+    }
+    reader.close();
+    return new ArrayList<double[]>(tail);
+  }
+
+  private double mean(List<double[]> rows) {
+    double sum = 0;
+    for (double[] row : rows) {
+      sum += row[1];
+    }
+    return rows.isEmpty() ? Double.NaN : sum / rows.size();
+  }
+
+  // Residual reduction in decades from the first to the last inner iteration,
+  // averaged over the time steps in rows
+  private double meanResidualDrop(List<double[]> rows, int inner) {
+    double sum = 0;
+    int steps = 0;
+    for (int start = rows.size() % inner; start + inner <= rows.size(); start += inner) {
+      double first = rows.get(start)[1];
+      double last = rows.get(start + inner - 1)[1];
+      if (first > 0 && last > 0) {
+        sum += Math.log10(first / last);
+        steps++;
+      }
+    }
+    return steps > 0 ? sum / steps : 0.0;
+  }
+
+  private void setInnerIterationCount(int count) {
+    Simulation simulation = getActiveSimulation();
+    InnerIterationStoppingCriterion innerIterationStoppingCriterion = ((InnerIterationStoppingCriterion) simulation
+        .getSolverStoppingCriterionManager().getSolverStoppingCriterion("Maximum Inner Iterations"));
+    innerIterationStoppingCriterion.setMaximumNumberInnerIterations(count);
+  }
+
   private void RunSteps(int steps) {
     Simulation simulation = getActiveSimulation();
 
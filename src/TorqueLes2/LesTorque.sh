@@ -6,6 +6,7 @@ RPM=__iRPM__
 MeshSize=5
 FlowRateMlMin=16.6
 RotorDiameter=80e-3
+ResourceHistoryFile=$HOME/RunResources.csv # calibration data of ResourcePredictor
 
 rm *.java
 rm *.slurm
@@ -32,4 +33,5 @@ mv recordShear.slurm Results/
 sed "s/__RPM__/$RPM/" -i LesTorque.java
 sed "s/__MeshSize__/$MeshSize/" -i LesTorque.java
 sed "s/__FlowRateMlMin__/$FlowRateMlMin/" -i LesTorque.java
-sed "s/__RotorDiameter__/$RotorDiameter/" -i LesTorque.java
\ No newline at end of file
+sed "s/__RotorDiameter__/$RotorDiameter/" -i LesTorque.java
+sed "s|__ResourceHistoryFile__|$ResourceHistoryFile|" -i LesTorque.java
\ No newline at end of file
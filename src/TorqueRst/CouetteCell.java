@@ -5,6 +5,7 @@ package macro;
 import java.util.*;
 import java.io.*;
 import java.nio.file.*;
+import java.security.*;
 
 import star.common.*;
 import star.base.neo.*;
@@ -62,6 +63,7 @@ public class CouetteCell extends StarMacro {
 
   // Mesh
   double RelMeshBaseSize = __MeshSize__; // - [dimensionless in terms of R_stator - R_rotor]
+  double summaryFraction = 0.25; // trailing part of the monitors averaged for LevelSummary.csv
   double refinementRelSize = 0.01; // -
   boolean thinMesher = false;
   boolean parallelMesher = false;
@@ -71,6 +73,45 @@ public class CouetteCell extends StarMacro {
   double PrimLayerTotalThickness = 5e-4; // m
   double PrismLayerStretching = 1.5; // -
 
+  // Prism layer designer - replaces the three settings above by the fewest layers
+  // that put the first cell at targetYPlus on the rotor. The wall shear is taken
+  // from WallShearFile (a WallShearStress table exported by a previous run, e.g.
+  // ExportShearRst.java) or else from Wendt's Taylor-Couette torque correlation.
+  // The layers grow until the last one is prismTransitionRatio of the gap cell
+  // size, within maxPrismThicknessFraction of the gap.
+  boolean designPrismLayers = true;
+  String WallShearFile = "__WallShearFile__"; // "none" for the correlation
+  double targetYPlus = 1.0;
+  int minPrismLayers = 2;
+  int maxPrismLayers = 30;
+  double maxPrismStretching = 1.5;
+  double prismTransitionRatio = 0.8; // last layer / cell size in the gap
+  double maxPrismThicknessFraction = 0.25; // of the gap, per wall
+
+  // Solution-adaptive refinement - after the initial RANS steps the refineFraction
+  // of cells with the largest RefinementIndicator (velocity jump across a cell,
+  // relative to the rotor tip speed) are flagged, grouped into at most
+  // maxRefinementBlocks boxes and refined to half the cell size of the previous
+  // cycle. The mesh is regenerated and the solution continued for adaptiveSteps.
+  // Stops after adaptiveCycles, at maxAdaptiveCells or once the Rotor Moment
+  // changes less than adaptiveTorqueTolerance between cycles.
+  int adaptiveCycles = __AdaptiveCycles__; // 0 keeps the fixed refinement zones only
+  double refineFraction = 0.1;
+  int maxRefinementBlocks = 6;
+  double clusterVoxelSize = 0.5; // of the gap, flagged cells closer than this are grouped
+  int adaptiveSteps = 2000;
+  long maxAdaptiveCells = 20000000;
+  double adaptiveTorqueTolerance = 0.005;
+
+  // Mesh cache - the volume mesh is stored as Mesh_<hash>.ccm, keyed by a hash of
+  // the geometry and mesher settings, and imported instead of re-meshing when a
+  // later run has the same settings
+  boolean useMeshCache = true;
+  String MeshCacheDirectory = "__MeshCacheDirectory__";
+
+  // Cells, tasks and seconds per step of every run, for ResourcePredictor.java
+  String ResourceHistoryFile = "__ResourceHistoryFile__";
+
   // Time-Stepping
   boolean IsSteady = true;
 
@@ -94,19 +135,27 @@ public class CouetteCell extends StarMacro {
 
   // calclated
   double MeshBaseSize, R1, R2, d; // m
+  boolean meshCached = false;
 
   public void execute() {
     Simulation simulation = getActiveSimulation();
     SessionDirectory = simulation.getSessionDir();
 
     setCalculatedProperties();
+    if (designPrismLayers) {
+      DesignPrismLayers();
+    }
     CreateGlobalParameters();
 
     CreateGeometry();
     CreatePhysics(IsSteady, TurbulenceModel);
+    String meshHash = MeshSettingsHash();
+    meshCached = ImportCachedMesh(meshHash);
     CreateRegion();
 
-    AssignPartsToRegion();
+    if (!meshCached) {
+      AssignPartsToRegion();
+    }
 
     CreateAutomatedMeshOperation(MeshBaseSize);
 
@@ -127,15 +176,17 @@ public class CouetteCell extends StarMacro {
     CreateReportsAndPlots();
     CreateRotorThresholdMonitor();
     
-    CreateVerticalRefinementZone(0*1.5*RotorStartZ , StatorHeight - 0*1.5*RotorStartZ, 100 * refinementRelSize);
-
-    CreateVerticalRefinementZone(0-1.1*TubeLength , 0*1.5*RotorStartZ, 100 * refinementRelSize*0.5);
-    CreateVerticalRefinementZone(StatorHeight - 0*1.5*RotorStartZ , StatorHeight+1.1*TubeLength, 100 * refinementRelSize*0.5);
+    for (double[] zone : RefinementZones()) {
+      CreateVerticalRefinementZone(zone[0], zone[1], zone[2]);
+    }
 
     Save();
 
     SetCurvatureDeviationMeshing(curvatureControl);
-    ExecuteMesh();
+    if (!meshCached) {
+      ExecuteMesh();
+      ExportCachedMesh(meshHash);
+    }
 
     WriteConfig();
     SetRstParam(RstC1e, RstC2e, RstCs);
@@ -172,13 +223,107 @@ public class CouetteCell extends StarMacro {
 
     ResetScenesAndTablesOnRemesh();
     setContinuityInitialization(continuityInitialization);
+    RecordRotorShear();
+    long wallStart = System.currentTimeMillis();
     RunSteps(InitialRansSteps);
+    WriteResourceUsage("TorqueRst", (System.currentTimeMillis() - wallStart) / 1000.0 / InitialRansSteps);
+    if (adaptiveCycles > 0) {
+      RunAdaptiveRefinement();
+    }
+    ExportAllMonitors();
+    WriteLevelSummary(String.format("%1.0fRPM_%1.0fmm_%s", RPM, RotorDiameter * 1000, TurbulenceModel), RelMeshBaseSize);
+  }
+
+  // Area-averaged wall shear stress magnitude on the rotor, monitored so
+  // WriteLevelSummary reports it to GridConvergence.java
+  private void RecordRotorShear() {
+    Simulation simulation = getActiveSimulation();
+    if (simulation.getReportManager().has("Rotor Wall Shear Stress")) {
+      return;
+    }
+
+    AreaAverageReport areaAverageReport = simulation.getReportManager().createReport(AreaAverageReport.class);
+    areaAverageReport.setPresentationName("Rotor Wall Shear Stress");
+    PrimitiveFieldFunction wallShearStress = ((PrimitiveFieldFunction) simulation.getFieldFunctionManager()
+        .getFunction("WallShearStress"));
+    areaAverageReport.setFieldFunction(wallShearStress.getMagnitudeFunction());
+    areaAverageReport.getParts().setQuery(null);
+    areaAverageReport.getParts()
+        .setObjects(simulation.getRegionManager().getRegion("Fluid").getBoundaryManager().getBoundary("Rotor"));
+
+    simulation.getMonitorManager().createMonitorAndPlot(new NeoObjectVector(new Object[] { areaAverageReport }), true,
+        "%1$s Plot");
+  }
+
+  // Appends the cell count, tasks and measured seconds per step to
+  // ResourceHistoryFile - the calibration data of ResourcePredictor.java
+  private void WriteResourceUsage(String study, double secondsPerStep) {
+    Simulation simulation = getActiveSimulation();
+
+    try {
+      ElementCountReport cellCount = CellCountReport();
+
+      boolean newFile = !Files.exists(Paths.get(ResourceHistoryFile));
+      PrintWriter writer = new PrintWriter(new FileWriter(ResourceHistoryFile, true));
+      if (newFile) {
+        writer.println("Study,TurbulenceModel,Partition,Nodes,Tasks,Cells,RotorDiameter,RelMeshBaseSize,PrismLayers,SecondsPerStep");
+      }
+      writer.println(String.format("%s,%s,%s,%s,%s,%.0f,%s,%s,%d,%.6g", study, TurbulenceModel,
+          System.getenv().getOrDefault("SLURM_JOB_PARTITION", "unknown"),
+          System.getenv().getOrDefault("SLURM_NNODES", "0"), System.getenv().getOrDefault("SLURM_NPROCS", "0"),
+          cellCount.getReportMonitorValue(), RotorDiameter, RelMeshBaseSize, NoPrismLayers, secondsPerStep));
+      writer.close();
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  // Mean of the last summaryFraction of every report monitor, from the files
+  // ExportAllMonitors wrote, as one row per report of Results/LevelSummary.csv -
+  // the per-level input of GridConvergence.java
+  private void WriteLevelSummary(String caseName, double meshSize) {
+    Simulation simulation = getActiveSimulation();
+
+    try {
+      Files.createDirectories(Paths.get(SessionDirectory + "/Results"));
+      PrintWriter writer = new PrintWriter(SessionDirectory + "/Results/LevelSummary.csv", "UTF-8");
+      writer.println("Case,MeshSize,Report,Value");
+      for (Monitor monitor : simulation.getMonitorManager().getMonitors()) {
+        if (!(monitor instanceof ReportMonitor)) {
+          continue;
+        }
+        Path path = Paths.get(SessionDirectory + "/monitors/" + monitor.getPresentationName().replace(" ", "") + ".csv");
+        if (!Files.exists(path)) {
+          continue;
+        }
+        List<String> lines = Files.readAllLines(path);
+        int first = 1 + (int) ((lines.size() - 1) * (1 - summaryFraction));
+        double sum = 0;
+        int count = 0;
+        for (int i = first; i < lines.size(); i++) {
+          String[] cols = lines.get(i).replace("\"", "").split(",");
+          if (cols.length > 1) {
+            sum += Double.parseDouble(cols[1]);
+            count++;
+          }
+        }
+        if (count > 0) {
+          writer.println(String.format("%s,%s,%s,%.10e", caseName, meshSize,
+              monitor.getPresentationName().replace(" Monitor", ""), sum / count));
+        }
+      }
+      writer.close();
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
   }
 
   private void WriteConfig() {
     try {
       PrintWriter writer = new PrintWriter("Sim_" + TurbulenceModel + "_TORQUE_" + uid, "UTF-8");
       writer.println("Mesh Base Size :" + RelMeshBaseSize);
+      writer.println("Prism Layers: " + NoPrismLayers + ", stretching " + PrismLayerStretching + ", thickness "
+          + PrimLayerTotalThickness + " m");
       writer.println("Turbulence Model: " + TurbulenceModel);
       if (TurbulenceModel == "RANS-kOmega") {
         writer.println("kOmegaConsituitive: " + kOmegaConsituitive);
@@ -606,6 +751,123 @@ public class CouetteCell extends StarMacro {
     }
   }
 
+  // Sets NoPrismLayers, PrismLayerStretching and PrimLayerTotalThickness from the
+  // estimated rotor wall shear
+  private void DesignPrismLayers() {
+    Simulation simulation = getActiveSimulation();
+
+    double wallShear = ExportedWallShear();
+    String source = WallShearFile;
+    if (!(wallShear > 0)) {
+      wallShear = CorrelatedRotorShear();
+      source = "Wendt correlation";
+    }
+    double frictionVelocity = Math.sqrt(wallShear / density);
+    double firstLayer = targetYPlus * (viscosity / density) / frictionVelocity;
+    double gapCellSize = MeshBaseSize * RefinementZones().get(0)[2] / 100.0;
+    double lastLayer = prismTransitionRatio * gapCellSize;
+    double maxThickness = maxPrismThicknessFraction * d;
+
+    // Fewest layers that reach lastLayer without exceeding maxPrismStretching
+    int layers = minPrismLayers;
+    if (lastLayer > firstLayer) {
+      layers = (int) Math.ceil(1 + Math.log(lastLayer / firstLayer) / Math.log(maxPrismStretching));
+    }
+    layers = Math.max(minPrismLayers, Math.min(maxPrismLayers, layers));
+    double stretching = layers > 1 ? Math.pow(Math.max(lastLayer / firstLayer, 1.0), 1.0 / (layers - 1)) : 1.0;
+    stretching = Math.min(stretching, maxPrismStretching);
+
+    // Too thick for the gap - stretch less over the same layers
+    if (PrismStackThickness(firstLayer, stretching, layers) > maxThickness) {
+      double low = 1.0;
+      double high = stretching;
+      for (int i = 0; i < 60; i++) {
+        double mid = 0.5 * (low + high);
+        if (PrismStackThickness(firstLayer, mid, layers) > maxThickness) {
+          high = mid;
+        } else {
+          low = mid;
+        }
+      }
+      stretching = low;
+    }
+
+    NoPrismLayers = layers;
+    PrismLayerStretching = Math.max(stretching, 1.0);
+    PrimLayerTotalThickness = Math.min(PrismStackThickness(firstLayer, PrismLayerStretching, layers), maxThickness);
+
+    simulation.println(String.format(
+        "Prism layer design: wall shear %.3g Pa (%s), first layer %.3g m for y+ %.2g -> %d layers, stretching %.3f, thickness %.3g m",
+        wallShear, source, firstLayer, targetYPlus, NoPrismLayers, PrismLayerStretching, PrimLayerTotalThickness));
+  }
+
+  private double PrismStackThickness(double firstLayer, double stretching, int layers) {
+    if (stretching - 1.0 < 1e-9) {
+      return firstLayer * layers;
+    }
+    return firstLayer * (Math.pow(stretching, layers) - 1.0) / (stretching - 1.0);
+  }
+
+  // Rotor wall shear from the torque correlations of Wendt (1933),
+  // G = T / (rho nu^2 L), below Re = 400 the laminar Couette solution
+  private double CorrelatedRotorShear() {
+    double omega = RPM * 2.0 * Math.PI / 60.0;
+    double nu = viscosity / density;
+    double eta = R1 / R2;
+    double Re = omega * R1 * d / nu;
+
+    if (Re < 400) {
+      return 2.0 * viscosity * omega * R2 * R2 / (R2 * R2 - R1 * R1);
+    }
+    double G;
+    if (Re < 1e4) {
+      G = 1.45 * Math.pow(eta, 1.5) / Math.pow(1 - eta, 1.75) * Math.pow(Re, 1.5);
+    } else {
+      G = 0.23 * Math.pow(eta, 1.5) / Math.pow(1 - eta, 1.75) * Math.pow(Re, 1.7);
+    }
+    double torquePerLength = G * density * nu * nu;
+    return torquePerLength / (2.0 * Math.PI * R1 * R1);
+  }
+
+  // 95th percentile of the WallShearStress column of WallShearFile, 0 if there is none
+  private double ExportedWallShear() {
+    Simulation simulation = getActiveSimulation();
+    if (!Files.exists(Paths.get(WallShearFile))) {
+      return 0;
+    }
+
+    try {
+      List<String> lines = Files.readAllLines(Paths.get(WallShearFile));
+      String[] header = lines.get(0).replace("\"", "").split(",");
+      int column = -1;
+      for (int i = 0; i < header.length; i++) {
+        if (header[i].contains("WallShearStress") || header[i].contains("Wall Shear Stress")) {
+          column = i;
+        }
+      }
+      if (column < 0) {
+        simulation.println("Prism layer design: no WallShearStress column in " + WallShearFile);
+        return 0;
+      }
+
+      List<Double> values = new ArrayList<Double>();
+      for (int i = 1; i < lines.size(); i++) {
+        String[] cols = lines.get(i).split(",");
+        if (cols.length > column) {
+          values.add(Math.abs(Double.parseDouble(cols[column])));
+        }
+      }
+      if (values.isEmpty()) {
+        return 0;
+      }
+      Collections.sort(values);
+      return values.get((int) Math.min(values.size() - 1, Math.floor(0.95 * values.size())));
+    } catch (Exception ex) {
+      simulation.println(ex);
+      return 0;
+    }
+  }
+
   private void SetPrismLayers(int noLayers, int noThinLayers, double prismLayerStretch,
       double prismLayerTotalThickness) {
 
@@ -669,6 +931,102 @@ public class CouetteCell extends StarMacro {
     autoMeshOperation.getInputGeometryObjects().setObjects(meshOperationPart);
   }
 
+  // Bottom, top and relative size of the vertical refinement zones
+  private List<double[]> RefinementZones() {
+    List<double[]> zones = new ArrayList<double[]>();
+    zones.add(new double[] { 0*1.5*RotorStartZ , StatorHeight - 0*1.5*RotorStartZ, 100 * refinementRelSize });
+    zones.add(new double[] { 0-1.1*TubeLength , 0*1.5*RotorStartZ, 100 * refinementRelSize*0.5 });
+    zones.add(new double[] { StatorHeight - 0*1.5*RotorStartZ , StatorHeight+1.1*TubeLength, 100 * refinementRelSize*0.5 });
+    return zones;
+  }
+
+  // Everything the volume mesh depends on, one setting per line
+  private String MeshSettings() {
+    StringBuilder settings = new StringBuilder();
+    settings.append("RotorDiameter=" + RotorDiameter + "\n");
+    settings.append("RotorHeight=" + RotorHeight + "\n");
+    settings.append("StatorDiameter=" + StatorDiameter + "\n");
+    settings.append("StatorHeight=" + StatorHeight + "\n");
+    settings.append("RotorStartZ=" + RotorStartZ + "\n");
+    settings.append("InletHoleDiameter=" + InletHoleDiameter + "\n");
+    settings.append("InletHoleRadialPosition=" + InletHoleRadialPosition + "\n");
+    settings.append("TubeLength=" + TubeLength + "\n");
+    settings.append("ShaftDiameter=" + ShaftDiameter + "\n");
+    settings.append("MeshBaseSize=" + MeshBaseSize + "\n");
+    settings.append("NumPrismLayers=" + NoPrismLayers + "\n");
+    settings.append("NumThinLayers=" + (thinMesher ? NoThinLayers : 0) + "\n");
+    settings.append("PrismLayerStretching=" + PrismLayerStretching + "\n");
+    settings.append("PrismThickness=" + PrimLayerTotalThickness + "\n");
+    settings.append("ThinMesher=" + thinMesher + "\n");
+    settings.append("CurvatureControl=" + curvatureControl + "\n");
+    for (double[] zone : RefinementZones()) {
+      settings.append("RefinementZone=" + Arrays.toString(zone) + "\n");
+    }
+    return settings.toString();
+  }
+
+  private String MeshSettingsHash() {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(MeshSettings().getBytes("UTF-8"));
+      StringBuilder hash = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        hash.append(String.format("%02x", digest[i]));
+      }
+      return hash.toString();
+    } catch (Exception ex) {
+      getActiveSimulation().println(ex);
+      return "";
+    }
+  }
+
+  // Imports Mesh_<hash>.ccm as the Fluid region if it is in the cache
+  private boolean ImportCachedMesh(String hash) {
+    Simulation simulation = getActiveSimulation();
+    Path cachedMesh = Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".ccm");
+    if (!useMeshCache || hash.isEmpty() || !Files.exists(cachedMesh)) {
+      simulation.println("Mesh cache: no mesh for " + hash + ", meshing");
+      return false;
+    }
+
+    simulation.println("Mesh cache: importing " + cachedMesh);
+    simulation.getImportManager().importMeshFiles(new StringVector(new String[] { cachedMesh.toString() }),
+        NeoProperty.fromString("{\'FileOptions\': [{\'Sequence\': 42}]}"));
+
+    Region fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+    fluidRegion.setPhysicsContinuum(simulation.getContinuumManager().getContinuum("Physics 1"));
+    return true;
+  }
+
+  // Stores the volume mesh of the Fluid region with the settings it was made
+  // from. Written under a temporary name and moved, so a job starting meanwhile
+  // never imports a partial file.
+  private void ExportCachedMesh(String hash) {
+    Simulation simulation = getActiveSimulation();
+    if (!useMeshCache || hash.isEmpty()) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(Paths.get(MeshCacheDirectory));
+      Path cachedMesh = Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".ccm");
+      Path partial = Paths.get(MeshCacheDirectory, "Mesh_" + hash + "_" + uid + ".ccm");
+
+      Region fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+      ImportManager importManager = simulation.getImportManager();
+      importManager.setFormatType(SolutionExportFormat.Type.CCM);
+      importManager.export(partial.toString(), new NeoObjectVector(new Object[] { fluidRegion }),
+          new NeoObjectVector(fluidRegion.getBoundaryManager().getBoundaries().toArray()),
+          new NeoObjectVector(new Object[] {}), new NeoObjectVector(new Object[] {}),
+          new NeoObjectVector(new Object[] {}), new NeoObjectVector(new Object[] {}), false, false);
+
+      Files.move(partial, cachedMesh, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      Files.write(Paths.get(MeshCacheDirectory, "Mesh_" + hash + ".txt"), MeshSettings().getBytes("UTF-8"));
+      simulation.println("Mesh cache: stored " + cachedMesh);
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
   private void ExecuteMesh() {
 
     Simulation simulation = getActiveSimulation();
@@ -784,16 +1142,22 @@ public class CouetteCell extends StarMacro {
   private void CreateRegion() {
     Simulation simulation = getActiveSimulation();
 
-    Region fluidRegion = simulation.getRegionManager().createEmptyRegion();
-    fluidRegion.setPresentationName("Fluid");
-
-    Boundary statorBoundary = fluidRegion.getBoundaryManager().getBoundary("Default");
+    // An imported cached mesh brings the region and its boundaries
+    Region fluidRegion;
+    if (simulation.getRegionManager().has("Fluid")) {
+      fluidRegion = simulation.getRegionManager().getRegion("Fluid");
+    } else {
+      fluidRegion = simulation.getRegionManager().createEmptyRegion();
+      fluidRegion.setPresentationName("Fluid");
+    }
 
-    statorBoundary.setPresentationName("Stator");
+    if (!fluidRegion.getBoundaryManager().has("Stator")) {
+      Boundary statorBoundary = fluidRegion.getBoundaryManager().getBoundary("Default");
 
-    Boundary rotorBoundary = fluidRegion.getBoundaryManager().createEmptyBoundary();
+      statorBoundary.setPresentationName("Stator");
+    }
 
-    rotorBoundary.setPresentationName("Rotor");
+    Boundary rotorBoundary = GetOrCreateBoundary("Rotor", fluidRegion);
 
     if(flowRate > 1e-9){
       Boundary OutletA = CreatePressureOutlet("OutletA", fluidRegion, simulation);
@@ -809,7 +1173,10 @@ public class CouetteCell extends StarMacro {
     
   }
 
-  private Boundary CreateWall(String name, Region region, Simulation simulation) {
+  private Boundary GetOrCreateBoundary(String name, Region region) {
+    if (region.getBoundaryManager().has(name)) {
+      return region.getBoundaryManager().getBoundary(name);
+    }
     Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
 
     boundary.setPresentationName(name);
@@ -817,10 +1184,14 @@ public class CouetteCell extends StarMacro {
     return boundary;
   }
 
-  private Boundary CreateOutlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
+  private Boundary CreateWall(String name, Region region, Simulation simulation) {
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
-    boundary.setPresentationName(name);
+    return boundary;
+  }
+
+  private Boundary CreateOutlet(String name, Region region, Simulation simulation) {
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
 
     OutletBoundary outletBoundary = ((OutletBoundary) simulation.get(ConditionTypeManager.class)
@@ -834,9 +1205,7 @@ public class CouetteCell extends StarMacro {
   }
 
   private Boundary CreatePressureOutlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
 
     PressureBoundary outletBoundary = ((PressureBoundary) simulation.get(ConditionTypeManager.class)
@@ -850,8 +1219,7 @@ public class CouetteCell extends StarMacro {
   }
 
   private Boundary CreateInlet(String name, Region region, Simulation simulation) {
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
     InletBoundary inletBoundary = ((InletBoundary) simulation.get(ConditionTypeManager.class).get(InletBoundary.class));
 
     boundary.setBoundaryType(inletBoundary);
@@ -867,8 +1235,7 @@ public class CouetteCell extends StarMacro {
 
   private Boundary CreateMassFlowInlet(String name, double MassFlowKgS, Region region, Simulation simulation) {
 
-    Boundary boundary = region.getBoundaryManager().createEmptyBoundary();
-    boundary.setPresentationName(name);
+    Boundary boundary = GetOrCreateBoundary(name, region);
 
     simulation.get(GlobalParameterManager.class).createGlobalParameter(ScalarGlobalParameter.class, "MassFlow");
     ScalarGlobalParameter scalarGlobalParameter = ((ScalarGlobalParameter) simulation.get(GlobalParameterManager.class).getObject("MassFlow"));
@@ -1240,7 +1607,266 @@ public class CouetteCell extends StarMacro {
         boundary_5);
   }
 
+  private ElementCountReport CellCountReport() {
+    Simulation simulation = getActiveSimulation();
+
+    if (simulation.getReportManager().has("Cell Count")) {
+      return (ElementCountReport) simulation.getReportManager().getReport("Cell Count");
+    }
+    ElementCountReport cellCount = simulation.getReportManager().createReport(ElementCountReport.class);
+    cellCount.setPresentationName("Cell Count");
+    cellCount.getParts().setQuery(null);
+    cellCount.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+    return cellCount;
+  }
+
+  private void RunAdaptiveRefinement() {
+    Simulation simulation = getActiveSimulation();
+
+    createDimensionlessFieldFuncs("RefinementIndicator",
+        "(mag(grad($$Velocity[0])) + mag(grad($$Velocity[1])) + mag(grad($$Velocity[2]))) * pow($Volume, 1.0/3.0) / ($RPM * $RotorDiameter / 2)");
+    Report torqueReport = simulation.getReportManager().getReport("Rotor Moment");
+    double lastTorque = torqueReport.getReportMonitorValue();
+
+    try {
+      PrintWriter log = new PrintWriter(new FileWriter(SessionDirectory + "/AdaptiveRefinement.csv", true));
+      log.println("Cycle,Cells,FlaggedCells,Threshold,Blocks,RelativeSize,RotorMoment,RelativeChange");
+
+      for (int cycle = 1; cycle <= adaptiveCycles; cycle++) {
+        // Checked before the export, which is the costly part on a large mesh
+        long cells = (long) CellCountReport().getReportMonitorValue();
+        if (cells > maxAdaptiveCells) {
+          simulation.println("Adaptive refinement: " + cells + " cells, limit reached");
+          break;
+        }
+
+        String path = ExportRefinementIndicator();
+        double[] indicator = ReadRefinementIndicator(path, (int) cells);
+        Arrays.sort(indicator);
+        double threshold = indicator[(int) Math.floor((1 - refineFraction) * (indicator.length - 1))];
+        List<double[]> flagged = ReadFlaggedCells(path, threshold);
+
+        List<double[]> blocks = ClusterFlaggedCells(flagged);
+        double relativeSize = RefinementZones().get(0)[2] / Math.pow(2, cycle);
+        for (double[] block : blocks) {
+          CreateRefinementBlock(String.format("[%s, %s, %s]", block[0], block[1], block[2]),
+              String.format("[%s, %s, %s]", block[3], block[4], block[5]), relativeSize,
+              "AdaptiveRefinement" + cycle);
+        }
+
+        // An imported cached mesh is not linked to the mesh operation yet
+        if (meshCached) {
+          AssignPartsToRegion();
+          meshCached = false;
+        }
+        ExecuteMesh();
+        ResetScenesAndTablesOnRemesh();
+        RunSteps(adaptiveSteps);
+
+        double torque = torqueReport.getReportMonitorValue();
+        double change = Math.abs(torque - lastTorque) / Math.max(Math.abs(lastTorque), 1e-30);
+        log.println(String.format("%d,%d,%d,%.4e,%d,%.4g,%.6e,%.4e", cycle, cells, flagged.size(), threshold,
+            blocks.size(), relativeSize, torque, change));
+        log.flush();
+        simulation.println(String.format("Adaptive refinement: cycle %d, %d of %d cells in %d blocks, torque change %.3g",
+            cycle, flagged.size(), cells, blocks.size(), change));
+        Save();
+
+        if (change < adaptiveTorqueTolerance) {
+          break;
+        }
+        lastTorque = torque;
+      }
+      log.close();
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  // Exports the cell centroids and RefinementIndicator of the Fluid region to
+  // RefinementIndicator.csv and returns its path
+  private String ExportRefinementIndicator() {
+    Simulation simulation = getActiveSimulation();
+
+    XyzInternalTable xyzInternalTable;
+    if (simulation.getTableManager().has("Refinement Indicator")) {
+      xyzInternalTable = (XyzInternalTable) simulation.getTableManager().getTable("Refinement Indicator");
+    } else {
+      xyzInternalTable = simulation.getTableManager().createTable(XyzInternalTable.class);
+      xyzInternalTable.setPresentationName("Refinement Indicator");
+      xyzInternalTable.setFieldFunctions(new NeoObjectVector(
+          new Object[] { simulation.getFieldFunctionManager().getFunction("RefinementIndicator") }));
+      xyzInternalTable.getParts().setQuery(null);
+      xyzInternalTable.getParts().setObjects(simulation.getRegionManager().getRegion("Fluid"));
+    }
+    xyzInternalTable.extract();
+    String path = SessionDirectory + "/RefinementIndicator.csv";
+    xyzInternalTable.export(path, ",");
+    return path;
+  }
+
+  // Indicator column only, streamed; expectedCells sizes the array
+  private double[] ReadRefinementIndicator(String path, int expectedCells) throws IOException {
+    double[] indicator = new double[Math.max(expectedCells, 1)];
+    int n = 0;
+    BufferedReader reader = Files.newBufferedReader(Paths.get(path));
+    int[] columns = RefinementIndicatorColumns(reader.readLine());
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      if (n == indicator.length) {
+        indicator = Arrays.copyOf(indicator, 2 * n);
+      }
+      indicator[n++] = Double.parseDouble(line.split(",")[columns[3]]);
+    }
+    reader.close();
+    return Arrays.copyOf(indicator, n);
+  }
+
+  // Second pass over the export, keeping { x, y, z } of the cells at or above threshold
+  private List<double[]> ReadFlaggedCells(String path, double threshold) throws IOException {
+    List<double[]> flagged = new ArrayList<double[]>();
+    BufferedReader reader = Files.newBufferedReader(Paths.get(path));
+    int[] columns = RefinementIndicatorColumns(reader.readLine());
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      String[] cols = line.split(",");
+      if (Double.parseDouble(cols[columns[3]]) >= threshold) {
+        flagged.add(new double[] { Double.parseDouble(cols[columns[0]]), Double.parseDouble(cols[columns[1]]),
+            Double.parseDouble(cols[columns[2]]) });
+      }
+    }
+    reader.close();
+    return flagged;
+  }
+
+  // Columns of { x, y, z, indicator } in the export header
+  private int[] RefinementIndicatorColumns(String headerLine) throws IOException {
+    String[] header = headerLine.replace("\"", "").split(",");
+    int[] columns = { -1, -1, -1, -1 };
+    for (int i = 0; i < header.length; i++) {
+      if (header[i].startsWith("X")) {
+        columns[0] = i;
+      } else if (header[i].startsWith("Y")) {
+        columns[1] = i;
+      } else if (header[i].startsWith("Z")) {
+        columns[2] = i;
+      } else if (header[i].startsWith("RefinementIndicator")) {
+        columns[3] = i;
+      }
+    }
+    for (int column : columns) {
+      if (column < 0) {
+        throw new IOException("Column missing in RefinementIndicator.csv header " + headerLine);
+      }
+    }
+    return columns;
+  }
+
+  // Groups flagged cells into boxes { xmin, ymin, zmin, xmax, ymax, zmax }: cells
+  // are binned into voxels of clusterVoxelSize gaps, connected voxels form one
+  // box, and the two boxes whose union adds the least volume are merged until at
+  // most maxRefinementBlocks remain
+  private List<double[]> ClusterFlaggedCells(List<double[]> flagged) {
+    double voxel = clusterVoxelSize * d;
+    long offset = 1L << 20;
+
+    Map<Long, double[]> voxels = new HashMap<Long, double[]>();
+    for (double[] cell : flagged) {
+      long key = voxelKey(Math.floor(cell[0] / voxel), Math.floor(cell[1] / voxel), Math.floor(cell[2] / voxel),
+          offset);
+      double[] box = voxels.computeIfAbsent(key, k -> new double[] { Double.MAX_VALUE, Double.MAX_VALUE,
+          Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE });
+      for (int j = 0; j < 3; j++) {
+        box[j] = Math.min(box[j], cell[j]);
+        box[j + 3] = Math.max(box[j + 3], cell[j]);
+      }
+    }
+
+    // Connected voxels, 26 neighbours
+    List<double[]> blocks = new ArrayList<double[]>();
+    Set<Long> visited = new HashSet<Long>();
+    for (Long start : voxels.keySet()) {
+      if (!visited.add(start)) {
+        continue;
+      }
+      double[] block = voxels.get(start).clone();
+      Deque<Long> queue = new ArrayDeque<Long>();
+      queue.add(start);
+      while (!queue.isEmpty()) {
+        long key = queue.poll();
+        long ix = (key >> 42) - offset;
+        long iy = ((key >> 21) & ((1L << 21) - 1)) - offset;
+        long iz = (key & ((1L << 21) - 1)) - offset;
+        for (int dx = -1; dx <= 1; dx++) {
+          for (int dy = -1; dy <= 1; dy++) {
+            for (int dz = -1; dz <= 1; dz++) {
+              long neighbour = voxelKey(ix + dx, iy + dy, iz + dz, offset);
+              if (voxels.containsKey(neighbour) && visited.add(neighbour)) {
+                queue.add(neighbour);
+                double[] box = voxels.get(neighbour);
+                for (int j = 0; j < 3; j++) {
+                  block[j] = Math.min(block[j], box[j]);
+                  block[j + 3] = Math.max(block[j + 3], box[j + 3]);
+                }
+              }
+            }
+          }
+        }
+      }
+      // Half a voxel of padding, so the refined region covers the flagged cells
+      for (int j = 0; j < 3; j++) {
+        block[j] -= 0.5 * voxel;
+        block[j + 3] += 0.5 * voxel;
+      }
+      blocks.add(block);
+    }
+
+    while (blocks.size() > maxRefinementBlocks) {
+      int bestI = 0;
+      int bestJ = 1;
+      double bestGrowth = Double.MAX_VALUE;
+      for (int i = 0; i < blocks.size(); i++) {
+        for (int j = i + 1; j < blocks.size(); j++) {
+          double growth = boxVolume(unionBox(blocks.get(i), blocks.get(j))) - boxVolume(blocks.get(i))
+              - boxVolume(blocks.get(j));
+          if (growth < bestGrowth) {
+            bestGrowth = growth;
+            bestI = i;
+            bestJ = j;
+          }
+        }
+      }
+      blocks.set(bestI, unionBox(blocks.get(bestI), blocks.get(bestJ)));
+      blocks.remove(bestJ);
+    }
+    return blocks;
+  }
+
+  private long voxelKey(double ix, double iy, double iz, long offset) {
+    return (((long) ix + offset) << 42) | (((long) iy + offset) << 21) | ((long) iz + offset);
+  }
+
+  private double[] unionBox(double[] a, double[] b) {
+    return new double[] { Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.min(a[2], b[2]), Math.max(a[3], b[3]),
+        Math.max(a[4], b[4]), Math.max(a[5], b[5]) };
+  }
+
+  private double boxVolume(double[] box) {
+    return (box[3] - box[0]) * (box[4] - box[1]) * (box[5] - box[2]);
+  }
+
   private void CreateVerticalRefinementZone(double Start, double End, double RelativeSize) {
+    CreateRefinementBlock("[-$StatorDiameter, -$StatorDiameter, " + Start + "] ",
+        "[$StatorDiameter, $StatorDiameter, " + End + "]", RelativeSize, "RefinementZone");
+  }
+
+  private void CreateRefinementBlock(String corner1, String corner2, double RelativeSize, String name) {
 
     Simulation simulation = getActiveSimulation();
 
@@ -1272,11 +1898,11 @@ public class CouetteCell extends StarMacro {
 
     refinementBlockPart.setDoNotRetessellate(false);
 
-    refinementBlockPart.setPresentationName("RefinementZone");
+    refinementBlockPart.setPresentationName(name);
 
-    refinementBlockPart.getCorner1().setDefinition("[-$StatorDiameter, -$StatorDiameter, " + Start + "] ");
+    refinementBlockPart.getCorner1().setDefinition(corner1);
 
-    refinementBlockPart.getCorner2().setDefinition("[$StatorDiameter, $StatorDiameter, " + End + "]");
+    refinementBlockPart.getCorner2().setDefinition(corner2);
 
     AutoMeshOperation autoMeshOperation_0 = ((AutoMeshOperation) simulation.get(MeshOperationManager.class)
         .getObject("Automated Mesh"));
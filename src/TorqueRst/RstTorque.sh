@@ -4,6 +4,12 @@ RPM=__iRPM__
 MeshSize=5
 FlowRateMlMin=16.6
 RotorDiameter=80e-3
+WallShearFile=none # WallShearStress table of a previous run, or the Taylor-Couette correlation
+AdaptiveCycles=0 # solution-adaptive refinement cycles after the initial RANS steps
+MeshCacheDirectory=$HOME/MeshCache # shared between runs, keyed by geometry and mesher settings
+ResourceHistoryFile=$HOME/RunResources.csv # calibration data of ResourcePredictor
+PredictResources=true # submit through predictResources.slurm, which picks partition and task count
+PredictedPrismLayers=10 # the prism designer picks 7-11 layers between 100 and 1000 RPM
 RstC1e=1.44
 RstC2e=2.4
 RstCs=0.21
@@ -16,6 +22,9 @@ wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics
 wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TorqueRst/runXeon40.slurm
 wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TorqueRst/runXeon16.slurm
 wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/TorqueRst/runUnix3.slurm
+wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ResourcePredictor/ResourcePredictor.java
+wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ResourcePredictor/predictResources.slurm
+[ -e Partitions.txt ] || wget -q https://raw.githubusercontent.com/jrbentzon/starccm-scale-thermodynamics/main/src/ResourcePredictor/Partitions.txt
 
 sed "s/__RPM__/$RPM/" -i CouetteCell.java
 sed "s/__MeshSize__/$MeshSize/" -i CouetteCell.java
@@ -24,4 +33,20 @@ sed "s/__RotorDiameter__/$RotorDiameter/" -i CouetteCell.java
 
 sed "s/__RstC1e__/$RstC1e/" -i CouetteCell.java
 sed "s/__RstCs__/$RstCs/" -i CouetteCell.java
-sed "s/__RstC2e__/$RstC2e/" -i CouetteCell.java
\ No newline at end of file
+sed "s/__RstC2e__/$RstC2e/" -i CouetteCell.java
+sed "s|__MeshCacheDirectory__|$MeshCacheDirectory|" -i CouetteCell.java
+sed "s|__WallShearFile__|$WallShearFile|" -i CouetteCell.java
+sed "s/__AdaptiveCycles__/$AdaptiveCycles/" -i CouetteCell.java
+sed "s|__ResourceHistoryFile__|$ResourceHistoryFile|" -i CouetteCell.java
+
+sed "s/__TurbulenceModel__/RANS-RST/" -i ResourcePredictor.java
+sed "s/__RotorDiameter__/$RotorDiameter/" -i ResourcePredictor.java
+sed "s/__MeshSize__/$MeshSize/" -i ResourcePredictor.java
+sed "s/__PrismLayers__/$PredictedPrismLayers/" -i ResourcePredictor.java
+sed "s/__Steps__/20000/" -i ResourcePredictor.java
+sed "s|__ResourceHistoryFile__|$ResourceHistoryFile|" -i ResourcePredictor.java
+sed "s|__CaseDirectory__|$(pwd)|" -i ResourcePredictor.java
+
+if [ "$PredictResources" = true ]; then
+    sbatch predictResources.slurm
+fi
\ No newline at end of file
@@ -24,7 +24,7 @@ public class PrepareHistoryAndSave extends StarMacro {
     new StarScript(getActiveRootObject(), new File(resolvePath("RecordReynoldsStresses.java"))).play();
     new StarScript(getActiveRootObject(), new File(resolvePath("CreateExportTable.java"))).play();
     Save();
-    new StarScript(getActiveRootObject(), new File(resolvePath("RunOneRev.java"))).play();
+    new StarScript(getActiveRootObject(), new File(resolvePath("RunPhaseLocked.java"))).play();
     Save();
 
   }
@@ -0,0 +1,264 @@
+// STAR-CCM+ macro: RunPhaseLocked.java
+// Written by STAR-CCM+ 15.02.007
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+import star.flow.*;
+import star.vis.*;
+import star.post.*;
+
+// Phase-locked replacement for RunOneRev. Samples are taken at fixed rotor
+// phase angles (multiples of one revolution / samplesPerRevolution in absolute
+// physical time), or every sampleInterval seconds if that is set. The solver is
+// run to one time step short of each sample time, and a single shortened step
+// lands on it. Under adaptive time stepping the solver is stepped singly while
+// the last step still fits, and the adaptive model is switched off for the
+// landing step and recreated with the same Courant targets afterwards. The
+// offset of each sample from its target time is logged as PhaseError and
+// reported when it exceeds phaseTolerance of the interval.
+// At each sample the tables are extracted and exported and the scenes printed
+// to phaseSamples/, and the sample is logged to PhaseSamples.csv. Per time step
+// updates of those tables and scenes are switched off; solution histories are
+// recorded on the same spacing through their delta-time update.
+public class RunPhaseLocked extends StarMacro {
+
+  double revolutions = 1;
+  int samplesPerRevolution = 36;
+  double sampleInterval = 0; // s, overrides samplesPerRevolution when > 0
+  double phaseTolerance = 1e-3; // fraction of the sample interval
+
+  String[] tableNames = { "Velocity Export XZ" };
+  String[] sceneNames = {};
+  String[] historyNames = { "RecordedVelocities" };
+
+  String OutputFolder = "phaseSamples";
+  String LogFile = "PhaseSamples.csv";
+
+  double adaptiveStep = 0; // s, last adaptive step taken
+
+  public void execute() {
+    runPhaseLocked();
+  }
+
+  private void runPhaseLocked() {
+
+    Simulation simulation = getActiveSimulation();
+    String SessionDirectory = simulation.getSessionDir();
+
+    double omega = getRpm(); // rad/s
+    double period = 2 * Math.PI / omega;
+    double interval = sampleInterval > 0 ? sampleInterval : period / samplesPerRevolution;
+
+    double startTime = simulation.getSolution().getPhysicalTime();
+    double endTime = startTime + revolutions * period;
+    long firstSample = (long) Math.floor(startTime / interval + 1e-6) + 1;
+
+    disableTimeStepUpdates();
+    recordHistoriesEvery(interval);
+
+    try {
+      Files.createDirectories(Paths.get(SessionDirectory, OutputFolder));
+      boolean newFile = !Files.exists(Paths.get(SessionDirectory, LogFile));
+      PrintWriter log = new PrintWriter(new FileWriter(SessionDirectory + "/" + LogFile, true));
+      if (newFile) {
+        log.println("Sample,PhysicalTime,PhaseDeg,LastTimeStep,PhaseError");
+      }
+
+      for (long sample = firstSample; sample * interval <= endTime + 1e-6 * interval; sample++) {
+        double target = sample * interval;
+        double lastStep = advanceTo(target);
+        double time = simulation.getSolution().getPhysicalTime();
+        if (time < target - 1e-6 * interval) {
+          simulation.println("RunPhaseLocked: stopped before " + target + " s");
+          break;
+        }
+
+        double phaseError = time - target;
+        if (Math.abs(phaseError) > phaseTolerance * interval) {
+          simulation.println(String.format("RunPhaseLocked: sample %d at %.9e s is %.3e s off its phase", sample,
+              time, phaseError));
+        }
+
+        writeSample(SessionDirectory, sample);
+        double phase = Math.toDegrees(omega * time) % 360.0;
+        log.println(String.format("%d,%.9e,%.3f,%.6e,%.3e", sample, time, phase, lastStep, phaseError));
+        log.flush();
+      }
+      log.close();
+    } catch (Exception ex) {
+      simulation.println(ex);
+    }
+  }
+
+  // Runs to one time step before target, then lands on it with a single shortened
+  // step. Returns the length of the last step.
+  private double advanceTo(double target) {
+
+    Simulation simulation = getActiveSimulation();
+    ImplicitUnsteadySolver implicitUnsteadySolver = ((ImplicitUnsteadySolver) simulation.getSolverManager()
+        .getSolver(ImplicitUnsteadySolver.class));
+    PhysicsContinuum adaptiveContinuum = getAdaptiveContinuum();
+    double timeStep = implicitUnsteadySolver.getTimeStep().getSIValue();
+
+    if (adaptiveContinuum == null) {
+      if (target - simulation.getSolution().getPhysicalTime() > timeStep) {
+        runUntil(target - timeStep);
+      }
+    } else {
+      // The adaptive step is only known once taken, so step singly while the last one still fits
+      if (adaptiveStep > 0) {
+        timeStep = adaptiveStep;
+      }
+      double time = simulation.getSolution().getPhysicalTime();
+      while (target - time > timeStep) {
+        simulation.getSimulationIterator().step(1);
+        double newTime = simulation.getSolution().getPhysicalTime();
+        if (newTime <= time) {
+          break;
+        }
+        timeStep = newTime - time;
+        time = newTime;
+      }
+      adaptiveStep = timeStep;
+    }
+
+    double remainder = target - simulation.getSolution().getPhysicalTime();
+    if (remainder <= 1e-6 * timeStep) {
+      return timeStep;
+    }
+
+    double[] cflTargets = null;
+    if (adaptiveContinuum != null) {
+      cflTargets = disableAdaptiveTimeStep(adaptiveContinuum);
+    }
+    String definition = implicitUnsteadySolver.getTimeStep().getDefinition();
+    implicitUnsteadySolver.getTimeStep().setValue(remainder);
+    simulation.getSimulationIterator().step(1);
+    implicitUnsteadySolver.getTimeStep().setDefinition(definition);
+    if (adaptiveContinuum != null) {
+      enableAdaptiveTimeStep(adaptiveContinuum, cflTargets);
+    }
+    return remainder;
+  }
+
+  private PhysicsContinuum getAdaptiveContinuum() {
+
+    Simulation simulation = getActiveSimulation();
+    for (Continuum continuum : simulation.getContinuumManager().getObjects()) {
+      if (continuum instanceof PhysicsContinuum && ((PhysicsContinuum) continuum).getModelManager()
+          .getModel(AdaptiveTimeStepModel.class) != null) {
+        return (PhysicsContinuum) continuum;
+      }
+    }
+    return null;
+  }
+
+  // Returns the mean and max Courant targets of the Convective CFL provider, as
+  // set up by EnableAdaptiveTimeStepping in the study macros
+  private double[] disableAdaptiveTimeStep(PhysicsContinuum physicsContinuum) {
+
+    AdaptiveTimeStepModel adaptiveTimeStepModel = physicsContinuum.getModelManager()
+        .getModel(AdaptiveTimeStepModel.class);
+    double[] cflTargets = null;
+    for (Object provider : adaptiveTimeStepModel.getTimeStepProviderManager().getObjects()) {
+      if (provider instanceof ConvectiveCflTimeStepProvider) {
+        cflTargets = new double[] { ((ConvectiveCflTimeStepProvider) provider).getTargetMeanCfl().getValue(),
+            ((ConvectiveCflTimeStepProvider) provider).getTargetMaxCfl().getValue() };
+      }
+    }
+    physicsContinuum.disableModel(adaptiveTimeStepModel);
+    return cflTargets;
+  }
+
+  private void enableAdaptiveTimeStep(PhysicsContinuum physicsContinuum, double[] cflTargets) {
+
+    physicsContinuum.enable(AdaptiveTimeStepModel.class);
+    if (cflTargets == null) {
+      return;
+    }
+    AdaptiveTimeStepModel adaptiveTimeStepModel = physicsContinuum.getModelManager()
+        .getModel(AdaptiveTimeStepModel.class);
+    ConvectiveCflTimeStepProvider convectiveCflTimeStepProvider = adaptiveTimeStepModel
+        .getTimeStepProviderManager().createObject(ConvectiveCflTimeStepProvider.class);
+    convectiveCflTimeStepProvider.getTargetMeanCfl().setValue(cflTargets[0]);
+    convectiveCflTimeStepProvider.getTargetMaxCfl().setValue(cflTargets[1]);
+  }
+
+  private void runUntil(double time) {
+
+    Simulation simulation = getActiveSimulation();
+    PhysicalTimeStoppingCriterion physicalTimeStoppingCriterion = ((PhysicalTimeStoppingCriterion) simulation
+        .getSolverStoppingCriterionManager().getSolverStoppingCriterion("Maximum Physical Time"));
+    physicalTimeStoppingCriterion.getMaximumTime().setValue(time);
+
+    simulation.getSimulationIterator().run();
+  }
+
+  private void writeSample(String SessionDirectory, long sample) {
+
+    Simulation simulation = getActiveSimulation();
+    for (String name : tableNames) {
+      if (simulation.getTableManager().has(name)) {
+        XyzInternalTable table = (XyzInternalTable) simulation.getTableManager().getTable(name);
+        table.extract();
+        table.export(String.format("%s/%s/%s_%06d.csv", SessionDirectory, OutputFolder, name.replace(' ', '_'),
+            sample), ",");
+      }
+    }
+    for (String name : sceneNames) {
+      if (simulation.getSceneManager().has(name)) {
+        Scene scene = simulation.getSceneManager().getSceneByName(name);
+        HardcopyProperties hardcopyProperties = scene.getSceneUpdate().getHardcopyProperties();
+        scene.printAndWait(resolvePath(String.format("%s/%s/%s_%06d.png", SessionDirectory, OutputFolder,
+            name.replace(' ', '_'), sample)), 1, hardcopyProperties.getCurrentResolutionWidth(),
+            hardcopyProperties.getCurrentResolutionHeight(), true, false);
+      }
+    }
+  }
+
+  private void disableTimeStepUpdates() {
+
+    Simulation simulation = getActiveSimulation();
+    for (String name : tableNames) {
+      if (simulation.getTableManager().has(name)) {
+        TableUpdate tableUpdate = ((XyzInternalTable) simulation.getTableManager().getTable(name)).getTableUpdate();
+        tableUpdate.setAutoExtract(false);
+        tableUpdate.setSaveToFile(false);
+      }
+    }
+    for (String name : sceneNames) {
+      if (simulation.getSceneManager().has(name)) {
+        simulation.getSceneManager().getSceneByName(name).getSceneUpdate().setSaveAnimation(false);
+      }
+    }
+  }
+
+  // Sample times are whole multiples of interval, so a delta-time update with the
+  // same spacing fires on the steps that land on them
+  private void recordHistoriesEvery(double interval) {
+
+    Simulation simulation = getActiveSimulation();
+    Units units = ((Units) simulation.getUnitsManager().getObject("s"));
+    for (String name : historyNames) {
+      if (simulation.get(SolutionHistoryManager.class).has(name)) {
+        SolutionHistory solutionHistory = ((SolutionHistory) simulation.get(SolutionHistoryManager.class)
+            .getObject(name));
+        StarUpdate starUpdate = solutionHistory.getUpdate();
+        starUpdate.getUpdateModeOption().setSelected(StarUpdateModeOption.Type.DELTATIME);
+        starUpdate.getDeltaTimeUpdateFrequency().setDeltaTime(Double.toString(interval), units);
+      }
+    }
+  }
+
+  private double getRpm() {
+    Simulation simulation = getActiveSimulation();
+    ScalarGlobalParameter sParameter = (ScalarGlobalParameter) simulation.get(GlobalParameterManager.class)
+        .getObject("RPM");
+    return sParameter.getQuantity().getSIValue();
+  }
+}
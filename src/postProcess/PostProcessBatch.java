@@ -0,0 +1,141 @@
+// Simcenter STAR-CCM+ macro: PostProcessBatch.java
+// Written by Simcenter STAR-CCM+ 15.06.008
+package macro;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import star.common.*;
+import star.base.neo.*;
+import star.vis.*;
+
+// Runs several post-processing macros in the session that already holds the
+// .sim, so the simulation is loaded once per pass instead of once per macro.
+// The task list is read from PostProcessTasks.txt (one "<macro.java> [<marker>]"
+// per line, # for comments) if present, otherwise the default list below is
+// used. The marker is the file the task writes, relative to the session
+// directory; a task only counts as OK when it does not throw and its marker was
+// written during the task, as in RunPipeline, since the export macros catch and
+// print their own exceptions. Only exports that read the solution belong in the
+// batch: the scene macros (ExportVelocity, ExportMeanVelocity, ExportTKE,
+// ExportShearStressScene, ExportInstVelocity, ExportInstShearStressScene) run
+// the solver to record their scenes, so each would start from the state the
+// previous one left behind. They are skipped here and keep their own jobs. A
+// failing task is logged and the next one is started.
+public class PostProcessBatch extends StarMacro {
+
+    String[][] defaultTasks = { { "ExportTorque.java", "RotorTorque.csv" },
+            { "ExportMonitors.java", "monitors/PhysicalTime.csv" },
+            { "ExportShear.java", "MeanShearMonitorData.csv" } };
+
+    List<String> solverTasks = Arrays.asList("ExportVelocity.java", "ExportMeanVelocity.java", "ExportTKE.java",
+            "ExportShearStressScene.java", "ExportInstVelocity.java", "ExportInstShearStressScene.java");
+
+    String TaskFile = "PostProcessTasks.txt";
+    String LogFile = "PostProcessBatch.csv";
+
+    String SessionDirectory;
+
+    public void execute() {
+        Simulation simulation = getActiveSimulation();
+        SessionDirectory = simulation.getSessionDir();
+
+        List<String[]> tasks = readTasks(SessionDirectory + "/" + TaskFile);
+
+        try {
+            boolean newLog = !Files.exists(Paths.get(SessionDirectory, LogFile));
+            PrintWriter log = new PrintWriter(new FileWriter(SessionDirectory + "/" + LogFile, true));
+            if (newLog) {
+                log.println("Task,Status,ElapsedSeconds,PhysicalTimeStart,PhysicalTimeEnd,Message");
+            }
+
+            long batchStart = System.currentTimeMillis();
+            int failed = 0;
+            for (String[] line : tasks) {
+                String task = line[0];
+                String marker = line.length > 1 ? line[1] : null;
+                double timeStart = simulation.getSolution().getPhysicalTime();
+                long start = System.currentTimeMillis();
+                String status = "OK";
+                String message = "";
+
+                if (solverTasks.contains(task)) {
+                    status = "SKIPPED";
+                    message = "runs the solver";
+                } else {
+                    simulation.println("PostProcessBatch: starting " + task);
+                    try {
+                        new StarScript(getActiveRootObject(), new File(resolvePath(task))).play();
+                        if (marker != null) {
+                            String missing = checkMarker(marker, start);
+                            if (missing != null) {
+                                status = "FAILED";
+                                message = missing;
+                            }
+                        }
+                    } catch (Throwable ex) {
+                        status = "FAILED";
+                        message = String.valueOf(ex).replace(",", ";").replace("\n", " ");
+                        simulation.println(ex);
+                    }
+                    if (status.equals("FAILED")) {
+                        failed++;
+                    }
+                    stopSceneRecording();
+                }
+
+                double seconds = (System.currentTimeMillis() - start) / 1000.0;
+                log.println(String.format("%s,%s,%.1f,%s,%s,%s", task, status, seconds, timeStart,
+                        simulation.getSolution().getPhysicalTime(), message));
+                log.flush();
+                simulation.println(String.format("PostProcessBatch: %s %s after %.1f s", task, status, seconds));
+            }
+            log.close();
+
+            simulation.println(String.format("PostProcessBatch: %d tasks, %d failed, %.1f s in total", tasks.size(),
+                    failed, (System.currentTimeMillis() - batchStart) / 1000.0));
+        } catch (Exception ex) {
+            simulation.println(ex);
+        }
+    }
+
+    // Scenes created by earlier tasks would otherwise keep writing frames while
+    // later tasks advance the solution
+    private void stopSceneRecording() {
+        for (Scene scene : getActiveSimulation().getSceneManager().getScenes()) {
+            scene.getSceneUpdate().setSaveAnimation(false);
+        }
+    }
+
+    // Returns why the marker does not show success, or null when it does
+    private String checkMarker(String marker, long taskStart) {
+        Path path = Paths.get(SessionDirectory, marker);
+        try {
+            if (!Files.exists(path) || Files.getLastModifiedTime(path).toMillis() < taskStart) {
+                return "marker " + marker + " not written";
+            }
+        } catch (Exception ex) {
+            return String.valueOf(ex).replace(",", ";").replace("\n", " ");
+        }
+        return null;
+    }
+
+    private List<String[]> readTasks(String path) {
+        List<String[]> tasks = new ArrayList<String[]>();
+        try {
+            if (Files.exists(Paths.get(path))) {
+                for (String line : Files.readAllLines(Paths.get(path))) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        tasks.add(line.split("\\s+"));
+                    }
+                }
+                return tasks;
+            }
+        } catch (Exception ex) {
+            getActiveSimulation().println(ex);
+        }
+        return Arrays.asList(defaultTasks);
+    }
+}